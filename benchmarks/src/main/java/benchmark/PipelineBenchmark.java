@@ -0,0 +1,491 @@
+package benchmark;
+
+import ascii_art.AsciiArtAlgorithm;
+import ascii_art.FrameSequenceRenderer;
+import ascii_output.AnsiConsoleAsciiOutput;
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import image.BrightnessIndex;
+import image.BrightnessPyramid;
+import image.Image;
+import image.ImageProcessing;
+import image_char_matching.GlyphSet;
+import image_char_matching.StructuralCharMatcher;
+import image_char_matching.SubImgCharMatcher;
+import metrics.RenderMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of each stage of the image to ASCII art pipeline, on generated images so that they
+ * run offline: loading, padding and sub-images, brightness, the char matcher and its mutations,
+ * matching, frame sequences and writing. Each benchmark only depends on the parameters of the states
+ * it takes, so it is measured once for each of their combinations.
+ * Usage: java -jar target/benchmarks.jar [JMH options], for example -p size=512 -p resolution=64.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    private static final char FIRST_CHAR = 32;      // First char of the generated charsets.
+    private static final char SPARE_CHAR = '~';     // Char added and removed by the mutation benchmarks.
+    private static final char FIRST_EXTRA_CHAR = 0xC0; // First of the chars added by the bulk mutations.
+    private static final int NUM_EXTRA_CHARS = 64;   // Number of chars added by the bulk mutations.
+    private static final int LOOKUPS_PER_OPERATION = 1 << 16; // Char lookups in one lookup benchmark.
+    private static final int FRAME_IMAGE_SIZE = 1024; // Size of the images the frames are made of.
+    private static final double FRAME_CHANGE_THRESHOLD = 0.01; // As played by FramePlayer.
+    private static final String FONT = "Courier New";
+    private static final long SEED = 42;
+
+    /**
+     * A generated image of a given size, its encoded file, its brightness index and padded view.
+     */
+    @State(Scope.Benchmark)
+    public static class ImageState {
+        @Param({"512", "2048"})
+        public int size;
+        private Image image;
+        private Image paddedImage;
+        private File imageFile;
+        private BrightnessIndex index;
+
+        @Setup
+        public void setUp() throws IOException {
+            image = generateImage(size, size, SEED);
+            paddedImage = ImageProcessing.getPaddedImage(image);
+            imageFile = File.createTempFile("benchmark", ".png");
+            ImageIO.write(toBufferedImage(image), "png", imageFile);
+            index = new BrightnessIndex(image);
+        }
+
+        @TearDown
+        public void tearDown() {
+            imageFile.delete();
+        }
+    }
+
+    /**
+     * The number of chars in each row of the ASCII art.
+     */
+    @State(Scope.Benchmark)
+    public static class ResolutionState {
+        @Param({"64", "256"})
+        public int resolution;
+    }
+
+    /**
+     * The sub-image views of the padded image at the resolution.
+     */
+    @State(Scope.Benchmark)
+    public static class SubImagesState {
+        private Image[][] subImages;
+
+        @Setup
+        public void setUp(ImageState imageState, ResolutionState resolutionState) {
+            subImages = ImageProcessing.getSubImages(imageState.paddedImage, resolutionState.resolution);
+        }
+    }
+
+    /**
+     * Matchers of a generated charset of a given size, and the chars and charsets the mutation
+     * benchmarks add and set. The mutations restore the charset, so every operation starts alike.
+     */
+    @State(Scope.Benchmark)
+    public static class CharsetState {
+        @Param({"10", "94"})
+        public int charsetSize;
+        private char[] charset;
+        private char[] otherCharset;
+        private char[] extraChars;
+        private SubImgCharMatcher matcher;
+        private SubImgCharMatcher mutatedMatcher;
+        private StructuralCharMatcher structuralMatcher;
+        private double[] brightness;
+
+        @Setup
+        public void setUp() {
+            charset = generateCharset(FIRST_CHAR, charsetSize);
+            otherCharset = generateCharset(FIRST_EXTRA_CHAR, charsetSize);
+            extraChars = generateCharset(FIRST_EXTRA_CHAR, NUM_EXTRA_CHARS);
+            matcher = new SubImgCharMatcher(charset);
+            mutatedMatcher = new SubImgCharMatcher(charset);
+            structuralMatcher = new StructuralCharMatcher(GlyphSet.of(charset));
+            // Also renders the glyphs of the other charsets, so that the mutations do not time rendering.
+            new SubImgCharMatcher(otherCharset);
+            new SubImgCharMatcher(new char[]{SPARE_CHAR});
+            brightness = new Random(SEED).doubles(LOOKUPS_PER_OPERATION).toArray();
+        }
+    }
+
+    /**
+     * The common fork/join pool, for the parallel mode of the algorithm.
+     */
+    @State(Scope.Benchmark)
+    public static class PoolState {
+        private final ForkJoinPool pool = ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Metrics of the pipeline, enabled or disabled, to measure their overhead.
+     */
+    @State(Scope.Benchmark)
+    public static class MetricsState {
+        @Param({"false", "true"})
+        public boolean metricsEnabled;
+
+        @Setup
+        public void setUp() {
+            RenderMetrics.getInstance().setEnabled(metricsEnabled);
+        }
+
+        @TearDown
+        public void tearDown() {
+            RenderMetrics.getInstance().setEnabled(false);
+            RenderMetrics.getInstance().reset();
+        }
+    }
+
+    /**
+     * A rendered frame and the outputs it is written to: the console outputs write to a channel that
+     * discards the bytes, and the html output to a temporary file. Two different frames alternate, so
+     * that the incremental renderer and the ANSI output have changes to handle every time.
+     */
+    @State(Scope.Benchmark)
+    public static class FrameState {
+        private char[][] asciiArt;
+        private Image[] frames;
+        private char[][][] frameArts;
+        private int nextFrame;
+        private FrameSequenceRenderer renderer;
+        private ConsoleAsciiOutput consoleOutput;
+        private AnsiConsoleAsciiOutput ansiOutput;
+        private HtmlAsciiOutput htmlOutput;
+        private File htmlFile;
+
+        @Setup
+        public void setUp(ResolutionState resolutionState, CharsetState charsetState) throws IOException {
+            int resolution = resolutionState.resolution;
+            frames = new Image[]{generateImage(FRAME_IMAGE_SIZE, FRAME_IMAGE_SIZE, SEED),
+                    generateImage(FRAME_IMAGE_SIZE, FRAME_IMAGE_SIZE, SEED + 1)};
+            frameArts = new char[frames.length][][];
+            for (int i = 0; i < frames.length; ++i) {
+                frameArts[i] = new AsciiArtAlgorithm(frames[i], resolution, charsetState.matcher).run();
+            }
+            asciiArt = frameArts[0];
+            renderer = new FrameSequenceRenderer(resolution, charsetState.matcher, FRAME_CHANGE_THRESHOLD);
+            consoleOutput = new ConsoleAsciiOutput(ConsoleAsciiOutput.DEFAULT_SEPARATOR,
+                    Channels.newChannel(OutputStream.nullOutputStream()));
+            ansiOutput = new AnsiConsoleAsciiOutput(ConsoleAsciiOutput.DEFAULT_SEPARATOR,
+                    Channels.newChannel(OutputStream.nullOutputStream()));
+            htmlFile = File.createTempFile("benchmark", ".html");
+            htmlOutput = new HtmlAsciiOutput(htmlFile.getPath(), FONT);
+        }
+
+        /**
+         * Get the index of the next of the alternating frames.
+         */
+        private int advance() {
+            nextFrame = (nextFrame + 1) % frames.length;
+            return nextFrame;
+        }
+
+        @TearDown
+        public void tearDown() {
+            htmlFile.delete();
+        }
+    }
+
+    /**
+     * Decode the whole image file.
+     */
+    @Benchmark
+    public Image load(ImageState imageState) throws IOException {
+        return new Image(imageState.imageFile.getPath());
+    }
+
+    /**
+     * Decode the image file with only the detail needed for the resolution.
+     */
+    @Benchmark
+    public Image loadSubsampled(ImageState imageState, ResolutionState resolutionState) throws IOException {
+        return new Image(imageState.imageFile.getPath(), resolutionState.resolution);
+    }
+
+    /**
+     * Get the padded view of the image.
+     */
+    @Benchmark
+    public Image getPaddedImage(ImageState imageState) {
+        return ImageProcessing.getPaddedImage(imageState.image);
+    }
+
+    /**
+     * Get the sub-image views of the padded image.
+     */
+    @Benchmark
+    public Image[][] getSubImages(ImageState imageState, ResolutionState resolutionState) {
+        return ImageProcessing.getSubImages(imageState.paddedImage, resolutionState.resolution);
+    }
+
+    /**
+     * Measure the brightness of every sub-image view by reading its pixels.
+     */
+    @Benchmark
+    public double calculateImageBrightness(SubImagesState subImagesState) {
+        double sum = 0;
+        for (Image[] row : subImagesState.subImages) {
+            for (Image subImage : row) {
+                sum += ImageProcessing.calculateImageBrightness(subImage);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Measure the brightness of the whole padded image, with the luma row kernel.
+     */
+    @Benchmark
+    public double calculatePaddedImageBrightness(ImageState imageState) {
+        return ImageProcessing.calculateImageBrightness(imageState.paddedImage);
+    }
+
+    /**
+     * Build the brightness index of the image.
+     */
+    @Benchmark
+    public BrightnessIndex index(ImageState imageState) {
+        return new BrightnessIndex(imageState.image);
+    }
+
+    /**
+     * Measure the brightness of every sub-image with the index.
+     */
+    @Benchmark
+    public double[][] tileBrightness(ImageState imageState, ResolutionState resolutionState) {
+        return ImageProcessing.getSubImagesBrightness(imageState.index, resolutionState.resolution);
+    }
+
+    /**
+     * Measure the brightness of every sub-image by summing its pixels directly, without an index.
+     */
+    @Benchmark
+    public double[][] tileBrightnessDirect(ImageState imageState, ResolutionState resolutionState) {
+        int resolution = resolutionState.resolution;
+        double[][] brightness =
+                new double[ImageProcessing.getNumSubImagesInCol(imageState.image, resolution)][resolution];
+        ImageProcessing.calculateSubImagesBrightness(imageState.image, resolution, brightness, 0,
+                brightness.length);
+        return brightness;
+    }
+
+    /**
+     * Measure the brightness at the resolution and at half of it with a new pyramid, the second level
+     * summed from the first, as the res command does.
+     */
+    @Benchmark
+    public double[][] pyramidResolutionChange(ImageState imageState, ResolutionState resolutionState) {
+        BrightnessPyramid pyramid = new BrightnessPyramid(imageState.index);
+        pyramid.getSubImagesBrightness(resolutionState.resolution);
+        return pyramid.getSubImagesBrightness(resolutionState.resolution / 2);
+    }
+
+    /**
+     * Look up the chars of many brightness values.
+     */
+    @Benchmark
+    public long getCharByImageBrightness(CharsetState charsetState) {
+        long sum = 0;
+        for (double value : charsetState.brightness) {
+            sum += charsetState.matcher.getCharByImageBrightness(value);
+        }
+        return sum;
+    }
+
+    /**
+     * Add a char to the matcher and remove it.
+     */
+    @Benchmark
+    public char addAndRemoveChar(CharsetState charsetState) {
+        SubImgCharMatcher matcher = charsetState.mutatedMatcher;
+        matcher.addChar(SPARE_CHAR);
+        matcher.removeChar(SPARE_CHAR);
+        return matcher.getCharByImageBrightness(0);
+    }
+
+    /**
+     * Add many chars to the matcher at once and remove them.
+     */
+    @Benchmark
+    public char addAndRemoveChars(CharsetState charsetState) {
+        SubImgCharMatcher matcher = charsetState.mutatedMatcher;
+        matcher.addChars(charsetState.extraChars);
+        matcher.removeChars(charsetState.extraChars);
+        return matcher.getCharByImageBrightness(0);
+    }
+
+    /**
+     * Replace the charset of the matcher with another one and back.
+     */
+    @Benchmark
+    public char setCharset(CharsetState charsetState) {
+        SubImgCharMatcher matcher = charsetState.mutatedMatcher;
+        matcher.setCharset(charsetState.otherCharset);
+        matcher.setCharset(charsetState.charset);
+        return matcher.getCharByImageBrightness(0);
+    }
+
+    /**
+     * Create a matcher, with the glyph brightness already cached.
+     */
+    @Benchmark
+    public SubImgCharMatcher newMatcher(CharsetState charsetState) {
+        return new SubImgCharMatcher(charsetState.charset);
+    }
+
+    /**
+     * Convert the image without a prebuilt index, summing each sub-image once.
+     */
+    @Benchmark
+    public char[][] runFromImage(ImageState imageState, ResolutionState resolutionState,
+                                 CharsetState charsetState) {
+        return new AsciiArtAlgorithm(imageState.image, resolutionState.resolution, charsetState.matcher)
+                .run();
+    }
+
+    /**
+     * Match every sub-image of the indexed image to a char by brightness.
+     */
+    @Benchmark
+    public char[][] match(ImageState imageState, ResolutionState resolutionState, CharsetState charsetState) {
+        return new AsciiArtAlgorithm(imageState.index, resolutionState.resolution, charsetState.matcher)
+                .run();
+    }
+
+    /**
+     * Match every sub-image of the indexed image to a char by brightness, in the fork/join pool.
+     */
+    @Benchmark
+    public char[][] matchParallel(ImageState imageState, ResolutionState resolutionState,
+                                  CharsetState charsetState, PoolState poolState) {
+        return new AsciiArtAlgorithm(imageState.index, resolutionState.resolution, charsetState.matcher,
+                poolState.pool).run();
+    }
+
+    /**
+     * Match every sub-image of the indexed image to a char by brightness, with metrics on or off.
+     */
+    @Benchmark
+    public char[][] matchWithMetrics(ImageState imageState, ResolutionState resolutionState,
+                                     CharsetState charsetState, MetricsState metricsState) {
+        return new AsciiArtAlgorithm(imageState.index, resolutionState.resolution, charsetState.matcher)
+                .run();
+    }
+
+    /**
+     * Match every sub-image of the indexed image to a char by shape.
+     */
+    @Benchmark
+    public char[][] matchByShape(ImageState imageState, ResolutionState resolutionState,
+                                 CharsetState charsetState) {
+        return new AsciiArtAlgorithm(imageState.index, resolutionState.resolution,
+                charsetState.structuralMatcher, null).run();
+    }
+
+    /**
+     * Render the next frame of a sequence incrementally.
+     */
+    @Benchmark
+    public char[][] renderFrame(FrameState frameState) {
+        return frameState.renderer.render(frameState.frames[frameState.advance()]);
+    }
+
+    /**
+     * Write a frame to the console output.
+     */
+    @Benchmark
+    public void writeConsole(FrameState frameState) {
+        frameState.consoleOutput.out(frameState.asciiArt);
+    }
+
+    /**
+     * Write the next frame of a sequence to the ANSI console output, which prints only the changes.
+     */
+    @Benchmark
+    public void writeAnsi(FrameState frameState) {
+        frameState.ansiOutput.out(frameState.frameArts[frameState.advance()]);
+    }
+
+    /**
+     * Write a frame to the html output.
+     */
+    @Benchmark
+    public void writeHtml(FrameState frameState) {
+        frameState.htmlOutput.out(frameState.asciiArt);
+    }
+
+    /**
+     * Method to generate a deterministic image with gradients and noise.
+     */
+    private static Image generateImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < height; ++i) {
+            for (int j = 0; j < width; ++j) {
+                int red = (i * 255 / height + random.nextInt(32)) & 0xFF;
+                int green = (j * 255 / width + random.nextInt(32)) & 0xFF;
+                int blue = ((i + j) * 255 / (width + height) + random.nextInt(32)) & 0xFF;
+                pixels[i * width + j] = (red << 16) | (green << 8) | blue;
+            }
+        }
+        return new Image(pixels, width, height);
+    }
+
+    /**
+     * Method to copy an image to a BufferedImage, to write it to a file.
+     */
+    private static BufferedImage toBufferedImage(Image image) {
+        BufferedImage bufferedImage = new BufferedImage(image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < image.getHeight(); ++i) {
+            for (int j = 0; j < image.getWidth(); ++j) {
+                bufferedImage.setRGB(j, i, image.getRgb(i, j));
+            }
+        }
+        return bufferedImage;
+    }
+
+    /**
+     * Method to generate a charset of consecutive chars from a first char. A charset from FIRST_CHAR is
+     * printable ASCII, without SPARE_CHAR.
+     */
+    private static char[] generateCharset(char firstChar, int charsetSize) {
+        int size = firstChar == FIRST_CHAR ? Math.min(charsetSize, SPARE_CHAR - FIRST_CHAR) : charsetSize;
+        char[] charset = new char[size];
+        for (int i = 0; i < charset.length; ++i) {
+            charset[i] = (char) (firstChar + i);
+        }
+        return charset;
+    }
+}
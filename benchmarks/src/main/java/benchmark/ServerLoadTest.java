@@ -0,0 +1,155 @@
+package benchmark;
+
+import ascii_art.AsciiArtServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency and throughput load test of the AsciiArtServer on localhost. It starts a server on a free
+ * port, unless a URL is given, then sends a generated image from many concurrent clients and prints
+ * the throughput and the latency percentiles.
+ * Usage: java -cp target/benchmarks.jar benchmark.ServerLoadTest [--url=http://localhost:8080/ascii]
+ * [--clients=32] [--requests=2000] [--size=1024] [--res=128] [--output=console]
+ */
+public class ServerLoadTest {
+    private static final String URL_OPTION = "--url=";
+    private static final String CLIENTS_OPTION = "--clients=";
+    private static final String REQUESTS_OPTION = "--requests=";
+    private static final String SIZE_OPTION = "--size=";
+    private static final String RESOLUTION_OPTION = "--res=";
+    private static final String OUTPUT_OPTION = "--output=";
+    private static final String DEFAULT_CLIENTS = "32";
+    private static final String DEFAULT_REQUESTS = "2000";
+    private static final String DEFAULT_SIZE = "1024";
+    private static final String DEFAULT_RESOLUTION = "128";
+    private static final String DEFAULT_OUTPUT = "console";
+    private static final String QUERY_FORMAT = "?res=%s&chars=%s&output=%s";
+    private static final String CHARS = "%23%25%2B-.0123456789%40"; // URL encoded "#%+-.0123456789@".
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 1};
+    private static final double NANOS_IN_MILLI = 1e6;
+    private static final double NANOS_IN_SECOND = 1e9;
+    private static final int HTTP_OK = 200;
+    private static final long SEED = 42;
+
+    /**
+     * Runs the load test.
+     * @param args options as described in the class documentation.
+     * @throws IOException if the generated image cannot be encoded or the server cannot start.
+     * @throws InterruptedException if interrupted while waiting for the clients.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int clients = Integer.parseInt(option(args, CLIENTS_OPTION, DEFAULT_CLIENTS));
+        int requests = Integer.parseInt(option(args, REQUESTS_OPTION, DEFAULT_REQUESTS));
+        int size = Integer.parseInt(option(args, SIZE_OPTION, DEFAULT_SIZE));
+        String url = option(args, URL_OPTION, null);
+        AsciiArtServer server = null;
+        if (url == null) {
+            server = new AsciiArtServer(0);
+            server.start();
+            url = "http://localhost:" + server.getPort() + AsciiArtServer.ENDPOINT_PATH;
+        }
+        URI uri = URI.create(url + String.format(QUERY_FORMAT, option(args, RESOLUTION_OPTION,
+                DEFAULT_RESOLUTION), CHARS, option(args, OUTPUT_OPTION, DEFAULT_OUTPUT)));
+        byte[] image = generatePng(size);
+        HttpClient client = HttpClient.newHttpClient();
+        long[] latencies = new long[requests];
+        AtomicInteger nextRequest = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; ++i) {
+            clientThreads.execute(() -> {
+                for (int request = nextRequest.getAndIncrement(); request < requests;
+                     request = nextRequest.getAndIncrement()) {
+                    long requestStart = System.nanoTime();
+                    if (!send(client, uri, image)) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[request] = System.nanoTime() - requestStart;
+                }
+            });
+        }
+        clientThreads.shutdown();
+        clientThreads.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        long elapsed = System.nanoTime() - start;
+        if (server != null) {
+            server.stop();
+        }
+        printReport(latencies, failures.get(), clients, elapsed);
+    }
+
+    /**
+     * Sends one request.
+     * @return true if the server converted the image.
+     */
+    private static boolean send(HttpClient client, URI uri, byte[] image) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(image)).build();
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == HTTP_OK;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Prints the throughput and the latency percentiles.
+     */
+    private static void printReport(long[] latencies, int failures, int clients, long elapsedNanos) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%d requests from %d clients in %.3f s: %.1f requests/s, %d failed%n",
+                sorted.length, clients, elapsedNanos / NANOS_IN_SECOND,
+                sorted.length * NANOS_IN_SECOND / elapsedNanos, failures);
+        for (double percentile : PERCENTILES) {
+            int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1);
+            System.out.printf("p%-5s %10.3f ms%n", percentile * 100,
+                    sorted[Math.max(index, 0)] / NANOS_IN_MILLI);
+        }
+    }
+
+    /**
+     * Generates a square noisy gradient image encoded as PNG.
+     */
+    private static byte[] generatePng(int size) throws IOException {
+        Random random = new Random(SEED);
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < size; ++i) {
+            for (int j = 0; j < size; ++j) {
+                int grey = Math.min(255, (i + j) * 255 / (2 * size) + random.nextInt(16));
+                image.setRGB(j, i, (grey << 16) | (grey << 8) | grey);
+            }
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", encoded);
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Gets the value of an option, or a default value.
+     */
+    private static String option(String[] args, String option, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(option)) {
+                return arg.substring(option.length());
+            }
+        }
+        return defaultValue;
+    }
+}
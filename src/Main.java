@@ -1,9 +1,34 @@
+import ascii_art.AsciiArtServer;
+import ascii_art.BatchConverter;
+import ascii_art.FramePlayer;
 import ascii_art.Shell;
+import image_char_matching.CharBrightnessCache;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public class Main {
+    private static final String BATCH_COMMAND = "batch";
+    private static final String SERVE_COMMAND = "serve";
+    private static final String PLAY_COMMAND = "play";
+    private static final String WARM_UP_PROPERTY = "ascii_art.warmUp";
+
     public static void main(String[] args) {
+        if (Boolean.getBoolean(WARM_UP_PROPERTY)) {
+            CharBrightnessCache.warmUp();
+        }
+        if (args.length > 0 && args[0].equals(BATCH_COMMAND)) {
+            BatchConverter.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals(SERVE_COMMAND)) {
+            AsciiArtServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals(PLAY_COMMAND)) {
+            FramePlayer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         try{
             Shell s = new Shell();
             s.run();
@@ -11,4 +36,4 @@ public class Main {
             System.out.println("Failed"+ e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
@@ -1,28 +1,113 @@
 package ascii_art;
 
+import image.BrightnessIndex;
 import image.Image;
 import image.ImageProcessing;
+import image_char_matching.CharMatcherSnapshot;
+import image_char_matching.StructuralCharMatcher;
 import image_char_matching.SubImgCharMatcher;
+import metrics.RenderMetrics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Class representing an algorithm for generating ASCII art from an image.
+ * The algorithm runs on the calling thread, or splits the rows of sub-images across a ForkJoinPool
+ * when one is given. Both ways produce the same ASCII art. A run uses one snapshot of the char set
+ * throughout, even if the matcher is changed while it runs.
+ * Sub-images are matched to characters by brightness, or by shape when a StructuralCharMatcher is given.
  */
 public class AsciiArtAlgorithm {
+    /**
+     * Number of rows of sub-images below which a parallel task is not split further.
+     */
+    private static final int MIN_ROWS_PER_TASK = 4;
+
     private final Image image;              // The input image.
+    private final BrightnessIndex brightnessIndex; // Brightness index of the input image, or null.
     private final int numCharsInRow;        // Number of characters in each row of the output ASCII art.
     private final SubImgCharMatcher matcher; // Character matcher for mapping brightness to characters.
+    private final StructuralCharMatcher structuralMatcher; // Shape matcher, or null to match brightness.
+    private final ForkJoinPool pool;        // Pool to run on, or null to run on the calling thread.
 
     /**
      * Constructor to initialize the algorithm with the input image, number of characters in a row, and
-     * character matcher.
+     * character matcher. No brightness index is built: each sub-image is summed directly from the pixels,
+     * which reads every pixel once, so it suits a single run. To run the same image several times, such
+     * as at several resolutions, build a BrightnessIndex once and pass it instead.
      * @param image The input image to generate ASCII art from.
      * @param numCharsInRow Number of characters in each row of the output ASCII art.
      * @param matcher Character matcher for mapping brightness to characters.
      */
     public AsciiArtAlgorithm(Image image, int numCharsInRow, SubImgCharMatcher matcher) {
         this.image = image;
+        this.brightnessIndex = null;
+        this.numCharsInRow = numCharsInRow;
+        this.matcher = matcher;
+        this.structuralMatcher = null;
+        this.pool = null;
+    }
+
+    /**
+     * Constructor to initialize the algorithm with an already built brightness index of the input image,
+     * so that running it at any resolution does not read the image pixels again.
+     * @param brightnessIndex The brightness index of the input image to generate ASCII art from.
+     * @param numCharsInRow Number of characters in each row of the output ASCII art.
+     * @param matcher Character matcher for mapping brightness to characters.
+     */
+    public AsciiArtAlgorithm(BrightnessIndex brightnessIndex, int numCharsInRow, SubImgCharMatcher matcher) {
+        this(brightnessIndex, numCharsInRow, matcher, null);
+    }
+
+    /**
+     * Constructor to initialize the algorithm to run in parallel. The parallelism is the one of the
+     * given pool, for example new ForkJoinPool(8) or ForkJoinPool.commonPool().
+     * @param brightnessIndex The brightness index of the input image to generate ASCII art from.
+     * @param numCharsInRow Number of characters in each row of the output ASCII art.
+     * @param matcher Character matcher for mapping brightness to characters.
+     * @param pool Pool to split the rows of sub-images across, or null to run on the calling thread.
+     */
+    public AsciiArtAlgorithm(BrightnessIndex brightnessIndex, int numCharsInRow, SubImgCharMatcher matcher,
+                             ForkJoinPool pool) {
+        this.image = brightnessIndex.getImage();
+        this.brightnessIndex = brightnessIndex;
         this.numCharsInRow = numCharsInRow;
         this.matcher = matcher;
+        this.structuralMatcher = null;
+        this.pool = pool;
+    }
+
+    /**
+     * Constructor to initialize the algorithm to match sub-images to characters by shape.
+     * @param brightnessIndex The brightness index of the input image to generate ASCII art from.
+     * @param numCharsInRow Number of characters in each row of the output ASCII art.
+     * @param structuralMatcher Character matcher for mapping the shape of sub-images to characters.
+     * @param pool Pool to split the rows of sub-images across, or null to run on the calling thread.
+     */
+    public AsciiArtAlgorithm(BrightnessIndex brightnessIndex, int numCharsInRow,
+                             StructuralCharMatcher structuralMatcher, ForkJoinPool pool) {
+        this.image = brightnessIndex.getImage();
+        this.brightnessIndex = brightnessIndex;
+        this.numCharsInRow = numCharsInRow;
+        this.matcher = null;
+        this.structuralMatcher = structuralMatcher;
+        this.pool = pool;
+    }
+
+    /**
+     * Method to check that an image can be converted with a number of characters in each row: the bounds
+     * of the res command of the shell, and at least one row of sub-images.
+     * @param image The input image.
+     * @param numCharsInRow Number of characters in each row of the output ASCII art.
+     * @throws InvalidParamsException if the image cannot be converted with that many chars in a row.
+     */
+    static void validateResolution(Image image, int numCharsInRow) throws InvalidParamsException {
+        if (numCharsInRow > image.getWidth() ||
+                numCharsInRow < Math.max(1, image.getWidth() / image.getHeight()) ||
+                ImageProcessing.getNumSubImagesInCol(image, numCharsInRow) == 0) {
+            throw new InvalidParamsException("resolution out of the image boundaries");
+        }
     }
 
     /**
@@ -30,24 +115,144 @@ public class AsciiArtAlgorithm {
      * @return A 2D array representing the resulting ASCII art.
      */
     public char[][] run() {
-        // Pad the input image.
-        Image paddedImage = ImageProcessing.getPaddedImage(this.image);
-        // Divide the padded image into sub-images.
-        Image[][] subImages = ImageProcessing.getSubImages(paddedImage, numCharsInRow);
-        // Assert that the number of characters in each row matches the specified number.
-        assert subImages[0].length == numCharsInRow;
+        RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.RENDER);
+        int numRows = ImageProcessing.getNumSubImagesInCol(image, numCharsInRow);
+        double[][] subImagesBrightness = new double[numRows][numCharsInRow];
         // Initialize a matrix to store the resulting ASCII art.
-        char[][] asciiArtMatrix = new char[subImages.length][numCharsInRow];
+        char[][] asciiArtMatrix = new char[numRows][numCharsInRow];
+        CharMatcherSnapshot snapshot = matcher == null ? null : matcher.getSnapshot();
+        if (pool == null) {
+            convertRows(snapshot, subImagesBrightness, asciiArtMatrix, 0, numRows);
+        } else {
+            pool.invoke(new ConvertRowsTask(snapshot, subImagesBrightness, asciiArtMatrix, 0, numRows));
+        }
+        RenderMetrics.stop(timer);
+        recordRender(numRows);
+        // Return the resulting ASCII art matrix.
+        return asciiArtMatrix;
+    }
+
+    /**
+     * Method to run the algorithm on the already calculated brightness of the sub-images, such as the
+     * result of ImageProcessing.getSubImagesBrightness for the same image and number of chars in a row.
+     * Only the mapping of brightness to characters is repeated, so the image pixels are not read.
+     * @param subImagesBrightness The brightness of each sub-image of the padded image.
+     * @return A 2D array representing the resulting ASCII art.
+     * @throws IllegalStateException if the algorithm matches by shape, which the brightness cannot do.
+     */
+    public char[][] run(double[][] subImagesBrightness) {
+        if (structuralMatcher != null) {
+            throw new IllegalStateException("Matching by shape needs the image, not only its brightness");
+        }
+        RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.RENDER);
+        RenderMetrics.Timer matchTimer = RenderMetrics.start(RenderMetrics.Stage.MATCH);
+        CharMatcherSnapshot snapshot = matcher.getSnapshot();
+        char[][] asciiArtMatrix = new char[subImagesBrightness.length][numCharsInRow];
+        for (int i = 0; i < subImagesBrightness.length; ++i) {
+            for (int j = 0; j < numCharsInRow; ++j) {
+                asciiArtMatrix[i][j] = snapshot.getCharByImageBrightness(subImagesBrightness[i][j]);
+            }
+        }
+        RenderMetrics.stop(matchTimer);
+        RenderMetrics.stop(timer);
+        // No image pixels were read, so only the matched tiles are counted.
+        RenderMetrics.recordRender((long) subImagesBrightness.length * numCharsInRow, 0);
+        return asciiArtMatrix;
+    }
+
+    /**
+     * Method to record a render of some rows of sub-images of the whole image in the metrics.
+     * @param numRows The number of rows of sub-images rendered.
+     */
+    private void recordRender(int numRows) {
+        RenderMetrics.recordRender((long) numRows * numCharsInRow,
+                (long) image.getWidth() * image.getHeight());
+    }
+
+    /**
+     * Method to convert some rows of sub-images of the padded image to characters.
+     * @param snapshot The char set to map brightness to characters with, or null to match by shape.
+     * @param subImagesBrightness Matrix to store the brightness of each sub-image in.
+     * @param asciiArtMatrix Matrix to store the resulting characters in.
+     * @param fromRow The first row to convert, inclusive.
+     * @param toRow The last row to convert, exclusive.
+     */
+    private void convertRows(CharMatcherSnapshot snapshot, double[][] subImagesBrightness,
+                             char[][] asciiArtMatrix, int fromRow, int toRow) {
+        if (structuralMatcher != null) {
+            RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.MATCH);
+            convertRowsByShape(asciiArtMatrix, fromRow, toRow);
+            RenderMetrics.stop(timer);
+            return;
+        }
+        // Calculate the brightness of each sub-image of the padded image, from the index if there is one.
+        RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.BRIGHTNESS);
+        if (brightnessIndex != null) {
+            ImageProcessing.calculateSubImagesBrightness(brightnessIndex, numCharsInRow, subImagesBrightness,
+                    fromRow, toRow);
+        } else {
+            ImageProcessing.calculateSubImagesBrightness(image, numCharsInRow, subImagesBrightness, fromRow,
+                    toRow);
+        }
+        RenderMetrics.stop(timer);
+        timer = RenderMetrics.start(RenderMetrics.Stage.MATCH);
         // Iterate over each sub-image.
-        for (int i = 0; i < subImages.length; ++i) {
+        for (int i = fromRow; i < toRow; ++i) {
             for (int j = 0; j < numCharsInRow; ++j) {
-                // Calculate the brightness of the sub-image.
-                double subImageBrightness = ImageProcessing.calculateImageBrightness(subImages[i][j]);
                 // Map the brightness to a character using the matcher and store it in the matrix.
-                asciiArtMatrix[i][j] = this.matcher.getCharByImageBrightness(subImageBrightness);
+                asciiArtMatrix[i][j] = snapshot.getCharByImageBrightness(subImagesBrightness[i][j]);
             }
         }
-        // Return the resulting ASCII art matrix.
-        return asciiArtMatrix;
+        RenderMetrics.stop(timer);
+    }
+
+    /**
+     * Method to convert some rows of sub-images of the padded image to characters by their shape.
+     * @param asciiArtMatrix Matrix to store the resulting characters in.
+     * @param fromRow The first row to convert, inclusive.
+     * @param toRow The last row to convert, exclusive.
+     */
+    private void convertRowsByShape(char[][] asciiArtMatrix, int fromRow, int toRow) {
+        int gridSize = structuralMatcher.getGridSize();
+        // One bitmap reused for every sub-image of these rows.
+        long[] bits = new long[structuralMatcher.getWordsPerBitmap()];
+        for (int i = fromRow; i < toRow; ++i) {
+            for (int j = 0; j < numCharsInRow; ++j) {
+                ImageProcessing.calculateSubImageBits(brightnessIndex, numCharsInRow, i, j, gridSize, bits);
+                asciiArtMatrix[i][j] = structuralMatcher.getCharByBits(bits);
+            }
+        }
+    }
+
+    /**
+     * Fork/join task converting a range of rows, split in halves until it is small enough.
+     */
+    private class ConvertRowsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final CharMatcherSnapshot snapshot;
+        private final double[][] subImagesBrightness;
+        private final char[][] asciiArtMatrix;
+        private final int fromRow;
+        private final int toRow;
+
+        ConvertRowsTask(CharMatcherSnapshot snapshot, double[][] subImagesBrightness, char[][] asciiArtMatrix,
+                        int fromRow, int toRow) {
+            this.snapshot = snapshot;
+            this.subImagesBrightness = subImagesBrightness;
+            this.asciiArtMatrix = asciiArtMatrix;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= MIN_ROWS_PER_TASK) {
+                convertRows(snapshot, subImagesBrightness, asciiArtMatrix, fromRow, toRow);
+                return;
+            }
+            int middleRow = (fromRow + toRow) >>> 1;
+            invokeAll(new ConvertRowsTask(snapshot, subImagesBrightness, asciiArtMatrix, fromRow, middleRow),
+                    new ConvertRowsTask(snapshot, subImagesBrightness, asciiArtMatrix, middleRow, toRow));
+        }
     }
 }
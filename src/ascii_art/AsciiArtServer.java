@@ -0,0 +1,274 @@
+package ascii_art;
+
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import image.Image;
+import image_char_matching.SubImgCharMatcher;
+import metrics.RenderMetrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP server converting uploaded images to ASCII art, so that one JVM can serve many
+ * concurrent users. Each request runs on its own thread, a virtual thread when the JVM supports them.
+ * Matchers are shared between requests: one matcher is created per set of chars and only read
+ * afterwards, and the matchers of the least recently used sets are dropped when they take too much memory.
+ * Usage: POST the encoded image to /ascii?res=128&amp;chars=0123456789&amp;output=console|html
+ *
+ * @author tamarwi, Roei.Nathanzon
+ */
+public class AsciiArtServer {
+    /**
+     * Path of the conversion endpoint.
+     */
+    public static final String ENDPOINT_PATH = "/ascii";
+    /**
+     * Default port of the server.
+     */
+    public static final int DEFAULT_PORT = 8080;
+    private static final String POST_METHOD = "POST";
+    private static final String RESOLUTION_PARAM = "res";
+    private static final String CHARS_PARAM = "chars";
+    private static final String OUTPUT_PARAM = "output";
+    private static final String HTML_OUTPUT = "html";
+    private static final String CONSOLE_OUTPUT = "console";
+    private static final String DEFAULT_CHARS = "0123456789";
+    private static final int DEFAULT_RESOLUTION = 128;
+    private static final String DEFAULT_FONT = "Courier New";
+    private static final String CONTENT_TYPE_HEADER = "Content-Type";
+    private static final String HTML_CONTENT_TYPE = "text/html; charset=utf-8";
+    private static final String TEXT_CONTENT_TYPE = "text/plain; charset=utf-8";
+    private static final String VIRTUAL_THREAD_EXECUTOR_FACTORY = "newVirtualThreadPerTaskExecutor";
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+    private static final int HTTP_INTERNAL_ERROR = 500;
+    private static final String BAD_REQUEST_FORMAT = "Did not convert: %s.%n";
+    // Most distinct chars in the charset of a request.
+    private static final int MAX_CHARSET_SIZE = 1024;
+    // Largest estimated size in bytes of the cached matchers.
+    private static final long MATCHER_CACHE_BYTES = 16L << 20;
+    // Estimated size in bytes of a matcher: its brightness lookup table, and its arrays and list per char.
+    private static final long MATCHER_FIXED_BYTES = 1 << 13;
+    private static final long MATCHER_BYTES_PER_CHAR = 64;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // Matcher of each requested charset, keyed by its sorted distinct chars and shared by all the requests
+    // using it. Guarded by itself.
+    private final LruCache<String, SubImgCharMatcher> matchers = new LruCache<>(MATCHER_CACHE_BYTES,
+            matcher -> MATCHER_FIXED_BYTES + MATCHER_BYTES_PER_CHAR * matcher.getSnapshot().size());
+
+    /**
+     * Constructor of a server listening on the loopback address.
+     * @param port the port to listen on, or 0 for any free port.
+     * @throws IOException if the port cannot be bound.
+     */
+    public AsciiArtServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext(ENDPOINT_PATH, this::handle);
+    }
+
+    /**
+     * Starts serving requests in the background.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, letting running requests end.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * Getter method for the port the server listens on.
+     * @return the bound port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Handles one conversion request.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            try {
+                convert(exchange);
+            } catch (RuntimeException e) {
+                respond(exchange, HTTP_INTERNAL_ERROR, TEXT_CONTENT_TYPE, new byte[0]);
+            }
+        }
+    }
+
+    /**
+     * Converts the image of a request and sends the response.
+     */
+    private void convert(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals(POST_METHOD)) {
+            respond(exchange, HTTP_METHOD_NOT_ALLOWED, TEXT_CONTENT_TYPE, new byte[0]);
+            return;
+        }
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        String output = params.getOrDefault(OUTPUT_PARAM, CONSOLE_OUTPUT);
+        String chars = normalizeCharset(params.getOrDefault(CHARS_PARAM, DEFAULT_CHARS));
+        int resolution;
+        Image image;
+        try (InputStream body = exchange.getRequestBody()) {
+            resolution = Integer.parseInt(params.getOrDefault(RESOLUTION_PARAM,
+                    Integer.toString(DEFAULT_RESOLUTION)));
+            RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.DECODE);
+            image = new Image(body, resolution);
+            RenderMetrics.stop(timer);
+            validate(resolution, image, chars, output);
+        } catch (InvalidParamsException | NumberFormatException | IOException e) {
+            respond(exchange, HTTP_BAD_REQUEST, TEXT_CONTENT_TYPE,
+                    String.format(BAD_REQUEST_FORMAT, e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        SubImgCharMatcher matcher = getMatcher(chars);
+        // Converted once, so the sub-images are summed directly instead of through an index.
+        char[][] asciiArt = new AsciiArtAlgorithm(image, resolution, matcher).run();
+        ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+        if (output.equals(HTML_OUTPUT)) {
+            new HtmlAsciiOutput(null, DEFAULT_FONT).writeTo(asciiArt, Channels.newChannel(responseBody));
+            respond(exchange, HTTP_OK, HTML_CONTENT_TYPE, responseBody.toByteArray());
+        } else {
+            new ConsoleAsciiOutput(ConsoleAsciiOutput.DEFAULT_SEPARATOR, Channels.newChannel(responseBody),
+                    StandardCharsets.UTF_8).out(asciiArt);
+            respond(exchange, HTTP_OK, TEXT_CONTENT_TYPE, responseBody.toByteArray());
+        }
+    }
+
+    /**
+     * Checks the parameters of a request.
+     * @throws InvalidParamsException if the parameters cannot be converted.
+     */
+    private static void validate(int resolution, Image image, String chars, String output)
+            throws InvalidParamsException {
+        AsciiArtAlgorithm.validateResolution(image, resolution);
+        if (chars.isEmpty()) {
+            throw new InvalidParamsException("empty charset");
+        }
+        if (chars.length() > MAX_CHARSET_SIZE) {
+            throw new InvalidParamsException("charset of more than " + MAX_CHARSET_SIZE + " chars");
+        }
+        if (!output.equals(HTML_OUTPUT) && !output.equals(CONSOLE_OUTPUT)) {
+            throw new InvalidParamsException("unknown output " + output);
+        }
+    }
+
+    /**
+     * Gets the shared matcher of a normalized charset, creating it if it is not cached. The matcher is
+     * created outside the lock, so a slow creation does not hold up requests for other charsets.
+     */
+    private SubImgCharMatcher getMatcher(String chars) {
+        SubImgCharMatcher matcher;
+        synchronized (matchers) {
+            matcher = matchers.get(chars);
+        }
+        if (matcher != null) {
+            return matcher;
+        }
+        SubImgCharMatcher created = new SubImgCharMatcher(chars.toCharArray());
+        synchronized (matchers) {
+            // Another request may have created the matcher meanwhile.
+            matcher = matchers.get(chars);
+            if (matcher == null) {
+                matchers.put(chars, created);
+                matcher = created;
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Normalizes the chars of a request, so that the same set of chars in any order and with any
+     * repetition shares one matcher.
+     * @return the distinct chars, sorted.
+     */
+    private static String normalizeCharset(String chars) {
+        StringBuilder normalized = new StringBuilder();
+        chars.chars().distinct().sorted().forEach(c -> normalized.append((char) c));
+        return normalized.toString();
+    }
+
+    /**
+     * Sends a complete response.
+     */
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set(CONTENT_TYPE_HEADER, contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        }
+    }
+
+    /**
+     * Parses a URL query string into its decoded parameters.
+     */
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Creates an executor running each request on a new virtual thread when the JVM has them (Java 21
+     * and later), and on a pooled platform thread otherwise.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod(VIRTUAL_THREAD_EXECUTOR_FACTORY).invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Main function for running the server until the JVM is stopped.
+     * @param args optionally, the port to listen on.
+     */
+    public static void main(String[] args) {
+        try {
+            AsciiArtServer server = new AsciiArtServer(args.length > 0 ? Integer.parseInt(args[0]) :
+                    DEFAULT_PORT);
+            server.start();
+            System.out.println("Serving on http://localhost:" + server.getPort() + ENDPOINT_PATH);
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Failed to start the server: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package ascii_art;
+
+import ascii_output.AsciiOutput;
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import image.Image;
+import image_char_matching.SubImgCharMatcher;
+import metrics.RenderMetrics;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless conversion of many images, without the interactive shell.
+ * Images go through three stages running on their own threads: decoding, conversion to ASCII art, and
+ * writing the output. The stages are connected by bounded queues, so a fast stage blocks instead of
+ * piling up decoded images in memory when the next stage falls behind. A throughput report is printed
+ * at the end.
+ * Usage: batch &lt;input directory or glob&gt; &lt;resolution&gt; &lt;chars|all&gt; &lt;console|html&gt;
+ * [output directory]
+ *
+ * @author tamarwi, Roei.Nathanzon
+ */
+public class BatchConverter {
+    private static final String USAGE =
+            "Usage: batch <input directory or glob> <resolution> <chars|all> <console|html> [output directory]";
+    private static final String ALL_CHARS_PARAM = "all";
+    private static final String HTML_OUTPUT = "html";
+    private static final String CONSOLE_OUTPUT = "console";
+    private static final String HTML_EXTENSION = ".html";
+    private static final String DEFAULT_FONT = "Courier New";
+    private static final String GLOB_SYNTAX = "glob:";
+    private static final char MIN_CHAR_VALUE = 32;
+    private static final char MAX_CHAR_VALUE = 126;
+    private static final int MIN_PARAMS = 4;
+    private static final int INPUT_PARAM_INDEX = 0;
+    private static final int RESOLUTION_PARAM_INDEX = 1;
+    private static final int CHARS_PARAM_INDEX = 2;
+    private static final int OUTPUT_PARAM_INDEX = 3;
+    private static final int OUTPUT_DIRECTORY_PARAM_INDEX = 4;
+    private static final int QUEUE_CAPACITY_PER_THREAD = 2;
+    private static final double NANOS_IN_SECOND = 1e9;
+    private static final double PIXELS_IN_MEGAPIXEL = 1e6;
+
+    private final int resolution;
+    private final SubImgCharMatcher matcher;
+    private final String outputType;
+    private final Path outputDirectory;
+    private final int decodeThreads;
+    private final int computeThreads;
+    private final BlockingQueue<Job> decodedQueue;   // Decoded images waiting to be converted.
+    private final BlockingQueue<Job> convertedQueue; // Converted images waiting to be written.
+    private final AtomicInteger convertedImages = new AtomicInteger();
+    private final AtomicLong convertedPixels = new AtomicLong();
+
+    /**
+     * An image going through the pipeline.
+     */
+    private static class Job {
+        // Marks the end of the images, passed through the queues to stop the next stage.
+        static final Job END = new Job(null);
+
+        final Path path;
+        Image image;
+        char[][] asciiArt;
+        long numPixels;
+
+        Job(Path path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * Constructor of a converter of images to a given resolution, charset and output type.
+     * @param resolution number of chars in each row of the output.
+     * @param charset chars to convert the images to.
+     * @param outputType "console" or "html".
+     * @param outputDirectory directory to write html files in.
+     * @param threads number of decoding threads, and of conversion threads.
+     */
+    public BatchConverter(int resolution, char[] charset, String outputType, Path outputDirectory,
+                          int threads) {
+        this.resolution = resolution;
+        this.matcher = new SubImgCharMatcher(charset);
+        this.outputType = outputType;
+        this.outputDirectory = outputDirectory;
+        this.decodeThreads = threads;
+        this.computeThreads = threads;
+        this.decodedQueue = new ArrayBlockingQueue<>(threads * QUEUE_CAPACITY_PER_THREAD);
+        this.convertedQueue = new ArrayBlockingQueue<>(threads * QUEUE_CAPACITY_PER_THREAD);
+    }
+
+    /**
+     * Converts all the given images and prints a throughput report.
+     * @param paths the images to convert.
+     * @throws InterruptedException if interrupted while waiting for the pipeline.
+     */
+    public void convert(List<Path> paths) throws InterruptedException {
+        long start = System.nanoTime();
+        ConcurrentLinkedQueue<Path> pendingPaths = new ConcurrentLinkedQueue<>(paths);
+        ExecutorService decoders = Executors.newFixedThreadPool(decodeThreads);
+        ExecutorService converters = Executors.newFixedThreadPool(computeThreads);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        AtomicInteger runningDecoders = new AtomicInteger(decodeThreads);
+        AtomicInteger runningConverters = new AtomicInteger(computeThreads);
+        for (int i = 0; i < decodeThreads; ++i) {
+            decoders.execute(() -> runStage(() -> decode(pendingPaths), runningDecoders, decodedQueue,
+                    computeThreads));
+        }
+        for (int i = 0; i < computeThreads; ++i) {
+            converters.execute(() -> runStage(this::convertNext, runningConverters, convertedQueue, 1));
+        }
+        writer.execute(this::writeAll);
+        for (ExecutorService stage : new ExecutorService[]{decoders, converters, writer}) {
+            stage.shutdown();
+            stage.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        printReport(paths.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * A step of a stage, producing the next job for the following stage.
+     */
+    private interface Step {
+        /**
+         * @return the next job, null to skip, or Job.END when the stage has no more jobs.
+         */
+        Job next() throws InterruptedException;
+    }
+
+    /**
+     * Runs a step until it ends, passing its jobs to the next queue. The last thread of the stage to end
+     * passes one END job to each thread of the next stage, even if the stage ended on an error, so that
+     * the next stage never waits forever.
+     */
+    private void runStage(Step step, AtomicInteger runningThreads, BlockingQueue<Job> nextQueue,
+                          int nextThreads) {
+        try {
+            for (Job job = step.next(); job != Job.END; job = step.next()) {
+                if (job != null) {
+                    nextQueue.put(job); // Blocks while the next stage is behind.
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (runningThreads.decrementAndGet() == 0) {
+                for (int i = 0; i < nextThreads; ++i) {
+                    putEnd(nextQueue);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pass an END job to the next stage, even if this thread was interrupted.
+     */
+    private static void putEnd(BlockingQueue<Job> nextQueue) {
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                nextQueue.put(Job.END);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decoding step: decodes the next pending image.
+     */
+    private Job decode(ConcurrentLinkedQueue<Path> pendingPaths) {
+        Path path = pendingPaths.poll();
+        if (path == null) {
+            return Job.END;
+        }
+        Job job = new Job(path);
+        try {
+            RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.DECODE);
+            Image image = new Image(path.toString(), resolution);
+            RenderMetrics.stop(timer);
+            AsciiArtAlgorithm.validateResolution(image, resolution);
+            job.image = image;
+        } catch (InvalidParamsException e) {
+            return fail(path, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            return fail(path, "cannot decode the image");
+        }
+        return job;
+    }
+
+    /**
+     * Conversion step: converts the next decoded image to ASCII art.
+     */
+    private Job convertNext() throws InterruptedException {
+        Job job = decodedQueue.take();
+        if (job == Job.END) {
+            return Job.END;
+        }
+        try {
+            // Converted once, so the sub-images are summed directly instead of through an index.
+            job.asciiArt = new AsciiArtAlgorithm(job.image, resolution, matcher).run();
+        } catch (RuntimeException e) {
+            return fail(job.path, "cannot convert the image: " + e);
+        }
+        job.numPixels = (long) job.image.getWidth() * job.image.getHeight();
+        job.image = null; // Let the pixels be collected before the job is written.
+        return job;
+    }
+
+    /**
+     * Writing stage: writes each converted image until all converters ended. An image counts as
+     * converted only once it is written.
+     */
+    private void writeAll() {
+        AsciiOutput consoleOutput = new ConsoleAsciiOutput();
+        try {
+            for (Job job = convertedQueue.take(); job != Job.END; job = convertedQueue.take()) {
+                RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.OUTPUT);
+                try {
+                    if (outputType.equals(HTML_OUTPUT)) {
+                        String fileName = job.path.getFileName().toString() + HTML_EXTENSION;
+                        new HtmlAsciiOutput(outputDirectory.resolve(fileName).toString(), DEFAULT_FONT)
+                                .write(job.asciiArt);
+                    } else {
+                        consoleOutput.out(job.asciiArt);
+                    }
+                    convertedImages.incrementAndGet();
+                    convertedPixels.addAndGet(job.numPixels);
+                } catch (IOException | RuntimeException e) {
+                    fail(job.path, "cannot write the output: " + e);
+                }
+                RenderMetrics.stop(timer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Report an image that cannot be converted.
+     * @return null, to skip the image.
+     */
+    private Job fail(Path path, String reason) {
+        System.err.println("Skipped " + path + ": " + reason + ".");
+        return null;
+    }
+
+    /**
+     * Print the number of converted images and the throughput of the whole pipeline.
+     */
+    private void printReport(int numImages, long elapsedNanos) {
+        double seconds = elapsedNanos / NANOS_IN_SECOND;
+        int converted = convertedImages.get();
+        System.err.printf("Converted %d of %d images in %.3f s: %.2f images/s, %.2f megapixels/s.%n",
+                converted, numImages, seconds, converted / seconds,
+                convertedPixels.get() / PIXELS_IN_MEGAPIXEL / seconds);
+    }
+
+    /**
+     * List the image files of a directory, or the files matching a glob such as "photos/*.jpg".
+     * @param input a directory or a glob.
+     * @return the matching files, sorted.
+     * @throws IOException if the directory cannot be listed.
+     */
+    static List<Path> listInput(String input) throws IOException {
+        Path inputPath = Path.of(input);
+        Path directory = inputPath;
+        PathMatcher matcher = path -> true;
+        if (!Files.isDirectory(inputPath)) {
+            directory = inputPath.getParent() == null ? Path.of(".") : inputPath.getParent();
+            matcher = FileSystems.getDefault().getPathMatcher(GLOB_SYNTAX + inputPath.getFileName());
+        }
+        PathMatcher fileNameMatcher = matcher;
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(path -> fileNameMatcher.matches(path.getFileName()))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Parse the chars parameter: "all" for all printable ASCII chars, or the chars themselves.
+     */
+    static char[] parseCharset(String chars) {
+        if (!chars.equals(ALL_CHARS_PARAM)) {
+            return chars.toCharArray();
+        }
+        char[] charset = new char[MAX_CHAR_VALUE - MIN_CHAR_VALUE + 1];
+        for (int i = 0; i < charset.length; ++i) {
+            charset[i] = (char) (MIN_CHAR_VALUE + i);
+        }
+        return charset;
+    }
+
+    /**
+     * Main function for running a batch conversion.
+     * @param args the params described in the class documentation.
+     */
+    public static void main(String[] args) {
+        if (args.length < MIN_PARAMS || !(args[OUTPUT_PARAM_INDEX].equals(HTML_OUTPUT) ||
+                args[OUTPUT_PARAM_INDEX].equals(CONSOLE_OUTPUT))) {
+            System.err.println(USAGE);
+            return;
+        }
+        try {
+            int resolution = Integer.parseInt(args[RESOLUTION_PARAM_INDEX]);
+            Path outputDirectory = Path.of(args.length > OUTPUT_DIRECTORY_PARAM_INDEX ?
+                    args[OUTPUT_DIRECTORY_PARAM_INDEX] : ".");
+            Files.createDirectories(outputDirectory);
+            int threads = Runtime.getRuntime().availableProcessors();
+            new BatchConverter(resolution, parseCharset(args[CHARS_PARAM_INDEX]), args[OUTPUT_PARAM_INDEX],
+                    outputDirectory, threads).convert(listInput(args[INPUT_PARAM_INDEX]));
+        } catch (NumberFormatException e) {
+            System.err.println(USAGE);
+        } catch (IOException e) {
+            System.err.println("Failed to list the input: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package ascii_art;
+
+import ascii_output.AnsiConsoleAsciiOutput;
+import image.Image;
+import image_char_matching.SubImgCharMatcher;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a sequence of frames as ASCII art in an ANSI terminal: the images of a directory (or glob) in
+ * name order, or the frames of an animated GIF. Frames are rendered incrementally by a
+ * FrameSequenceRenderer and only the changed cells are printed by an AnsiConsoleAsciiOutput, at a fixed
+ * frame rate. A report of the achieved frame rate is printed at the end.
+ * Usage: play &lt;input directory, glob or gif&gt; &lt;resolution&gt; [frames per second] [chars|all]
+ *
+ * @author tamarwi, Roei.Nathanzon
+ */
+public class FramePlayer {
+    private static final String USAGE =
+            "Usage: play <input directory, glob or gif> <resolution> [frames per second] [chars|all]";
+    private static final String GIF_EXTENSION = ".gif";
+    private static final String GIF_IMAGE_METADATA_FORMAT = "javax_imageio_gif_image_1.0";
+    private static final String GIF_STREAM_METADATA_FORMAT = "javax_imageio_gif_stream_1.0";
+    private static final String SCREEN_DESCRIPTOR_NODE = "LogicalScreenDescriptor";
+    private static final String SCREEN_WIDTH_ATTRIBUTE = "logicalScreenWidth";
+    private static final String SCREEN_HEIGHT_ATTRIBUTE = "logicalScreenHeight";
+    private static final String IMAGE_DESCRIPTOR_NODE = "ImageDescriptor";
+    private static final String GRAPHIC_CONTROL_NODE = "GraphicControlExtension";
+    private static final String LEFT_ATTRIBUTE = "imageLeftPosition";
+    private static final String TOP_ATTRIBUTE = "imageTopPosition";
+    private static final String DISPOSAL_ATTRIBUTE = "disposalMethod";
+    private static final String RESTORE_TO_BACKGROUND = "restoreToBackgroundColor";
+    private static final String RESTORE_TO_PREVIOUS = "restoreToPrevious";
+    private static final String DEFAULT_CHARS = "all";
+    private static final int MIN_PARAMS = 2;
+    private static final int INPUT_PARAM_INDEX = 0;
+    private static final int RESOLUTION_PARAM_INDEX = 1;
+    private static final int FPS_PARAM_INDEX = 2;
+    private static final int CHARS_PARAM_INDEX = 3;
+    private static final int DEFAULT_FPS = 30;
+    // Brightness change below which a sub-image keeps its char between frames.
+    private static final double CHANGE_THRESHOLD = 0.01;
+    private static final double NANOS_IN_SECOND = 1e9;
+
+    /**
+     * A source of the frames to play, decoded one at a time.
+     */
+    private interface FrameSource extends Closeable {
+        /**
+         * @return the next frame, or null when there are no more frames.
+         * @throws IOException if the frame cannot be decoded.
+         */
+        Image next() throws IOException;
+    }
+
+    /**
+     * The images of a list of files, in order.
+     */
+    private static class FileFrameSource implements FrameSource {
+        private final Iterator<Path> paths;
+        private final int resolution;
+
+        FileFrameSource(List<Path> paths, int resolution) {
+            this.paths = paths.iterator();
+            this.resolution = resolution;
+        }
+
+        @Override
+        public Image next() throws IOException {
+            // Decode only the detail the resolution needs.
+            return paths.hasNext() ? new Image(paths.next().toString(), resolution) : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * The frames of an animated GIF. A GIF frame may cover only a part of the picture and be drawn over
+     * the previous frames, so frames are drawn on a canvas as described by their metadata.
+     */
+    private static class GifFrameSource implements FrameSource {
+        private final ImageInputStream input;
+        private final ImageReader reader;
+        private final int numFrames;
+        private BufferedImage canvas;
+        private int nextFrame;
+
+        GifFrameSource(File file) throws IOException {
+            input = ImageIO.createImageInputStream(file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                input.close();
+                throw new IIOException("Unsupported image format");
+            }
+            reader = readers.next();
+            reader.setInput(input, false);
+            numFrames = reader.getNumImages(true);
+        }
+
+        @Override
+        public Image next() throws IOException {
+            if (nextFrame == numFrames) {
+                return null;
+            }
+            BufferedImage frame = reader.read(nextFrame);
+            IIOMetadataNode metadata = getMetadata(reader.getImageMetadata(nextFrame));
+            ++nextFrame;
+            int left = getIntAttribute(metadata, IMAGE_DESCRIPTOR_NODE, LEFT_ATTRIBUTE);
+            int top = getIntAttribute(metadata, IMAGE_DESCRIPTOR_NODE, TOP_ATTRIBUTE);
+            if (canvas == null) {
+                createCanvas(frame.getWidth() + left, frame.getHeight() + top);
+            }
+            BufferedImage previousCanvas = null;
+            String disposal = getAttribute(metadata, GRAPHIC_CONTROL_NODE, DISPOSAL_ATTRIBUTE);
+            if (RESTORE_TO_PREVIOUS.equals(disposal)) {
+                previousCanvas = copy(canvas);
+            }
+            Graphics2D graphics = canvas.createGraphics();
+            graphics.drawImage(frame, left, top, null);
+            graphics.dispose();
+            Image image = new Image(canvas);
+            // Dispose of the frame before the next one is drawn.
+            if (previousCanvas != null) {
+                canvas = previousCanvas;
+            } else if (RESTORE_TO_BACKGROUND.equals(disposal)) {
+                clear(left, top, frame.getWidth(), frame.getHeight());
+            }
+            return image;
+        }
+
+        /**
+         * Create a white canvas of the size of the logical screen of the GIF, or of the first frame.
+         */
+        private void createCanvas(int frameWidth, int frameHeight) throws IOException {
+            int width = 0;
+            int height = 0;
+            IIOMetadata streamMetadata = reader.getStreamMetadata();
+            if (streamMetadata != null) {
+                IIOMetadataNode tree = (IIOMetadataNode) streamMetadata.getAsTree(GIF_STREAM_METADATA_FORMAT);
+                width = getIntAttribute(tree, SCREEN_DESCRIPTOR_NODE, SCREEN_WIDTH_ATTRIBUTE);
+                height = getIntAttribute(tree, SCREEN_DESCRIPTOR_NODE, SCREEN_HEIGHT_ATTRIBUTE);
+            }
+            canvas = new BufferedImage(Math.max(width, frameWidth), Math.max(height, frameHeight),
+                    BufferedImage.TYPE_INT_RGB);
+            clear(0, 0, canvas.getWidth(), canvas.getHeight());
+        }
+
+        private void clear(int left, int top, int width, int height) {
+            Graphics2D graphics = canvas.createGraphics();
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(left, top, width, height);
+            graphics.dispose();
+        }
+
+        private static BufferedImage copy(BufferedImage image) {
+            BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+            Graphics2D graphics = copy.createGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+            return copy;
+        }
+
+        private static IIOMetadataNode getMetadata(IIOMetadata metadata) {
+            return (IIOMetadataNode) metadata.getAsTree(GIF_IMAGE_METADATA_FORMAT);
+        }
+
+        private static String getAttribute(IIOMetadataNode metadata, String nodeName, String attribute) {
+            for (Node node = metadata.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node.getNodeName().equals(nodeName)) {
+                    return ((IIOMetadataNode) node).getAttribute(attribute);
+                }
+            }
+            return null;
+        }
+
+        private static int getIntAttribute(IIOMetadataNode metadata, String nodeName, String attribute) {
+            String value = getAttribute(metadata, nodeName, attribute);
+            return value == null || value.isEmpty() ? 0 : Integer.parseInt(value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.dispose();
+            input.close();
+        }
+    }
+
+    private final FrameSequenceRenderer renderer;
+    private final AnsiConsoleAsciiOutput output = new AnsiConsoleAsciiOutput();
+    private final long nanosPerFrame;
+
+    /**
+     * Constructor of a player of frames at a given resolution, charset and frame rate.
+     * @param resolution number of chars in each row of the output.
+     * @param charset chars to convert the frames to.
+     * @param framesPerSecond number of frames to play each second.
+     */
+    public FramePlayer(int resolution, char[] charset, int framesPerSecond) {
+        this.renderer = new FrameSequenceRenderer(resolution, new SubImgCharMatcher(charset),
+                CHANGE_THRESHOLD);
+        this.nanosPerFrame = (long) (NANOS_IN_SECOND / framesPerSecond);
+    }
+
+    /**
+     * Plays all the frames of a source, then prints a report of the achieved frame rate.
+     */
+    private void play(FrameSource source) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long nextFrameTime = start;
+        int numFrames = 0;
+        long rematchedTiles = 0;
+        long tiles = 0;
+        for (Image frame = source.next(); frame != null; frame = source.next()) {
+            if (renderer.getNumCharsInRow() > frame.getWidth()) {
+                System.err.println("Stopped: resolution exceeds the frame width.");
+                break;
+            }
+            char[][] asciiArt = renderer.render(frame);
+            rematchedTiles += renderer.getLastRematchedTiles();
+            tiles += (long) asciiArt.length * (asciiArt.length == 0 ? 0 : asciiArt[0].length);
+            // Wait for the time of the frame, or print it at once if playback is late.
+            nextFrameTime += nanosPerFrame;
+            long delay = nextFrameTime - System.nanoTime();
+            if (delay > 0) {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+            output.out(asciiArt);
+            ++numFrames;
+        }
+        double seconds = (System.nanoTime() - start) / NANOS_IN_SECOND;
+        System.err.printf("Played %d frames in %.3f s: %.2f frames/s, %.1f%% of the tiles matched again.%n",
+                numFrames, seconds, numFrames / seconds, tiles == 0 ? 0 : 100.0 * rematchedTiles / tiles);
+    }
+
+    /**
+     * Open the frames of the input: the frames of a GIF file, or the images of a directory or glob.
+     * @param resolution number of chars in each row the frames will be rendered with.
+     */
+    private static FrameSource openInput(String input, int resolution) throws IOException {
+        Path inputPath = Path.of(input);
+        if (Files.isRegularFile(inputPath) && input.toLowerCase(Locale.ROOT).endsWith(GIF_EXTENSION)) {
+            return new GifFrameSource(inputPath.toFile());
+        }
+        return new FileFrameSource(BatchConverter.listInput(input), resolution);
+    }
+
+    /**
+     * Main function for playing frames.
+     * @param args the params described in the class documentation.
+     */
+    public static void main(String[] args) {
+        if (args.length < MIN_PARAMS) {
+            System.err.println(USAGE);
+            return;
+        }
+        int resolution;
+        try {
+            resolution = Integer.parseInt(args[RESOLUTION_PARAM_INDEX]);
+        } catch (NumberFormatException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        if (resolution < 1) {
+            System.err.println(USAGE);
+            return;
+        }
+        try (FrameSource source = openInput(args[INPUT_PARAM_INDEX], resolution)) {
+            int framesPerSecond = args.length > FPS_PARAM_INDEX ?
+                    Integer.parseInt(args[FPS_PARAM_INDEX]) : DEFAULT_FPS;
+            String chars = args.length > CHARS_PARAM_INDEX ? args[CHARS_PARAM_INDEX] : DEFAULT_CHARS;
+            if (framesPerSecond <= 0) {
+                System.err.println(USAGE);
+                return;
+            }
+            new FramePlayer(resolution, BatchConverter.parseCharset(chars), framesPerSecond).play(source);
+        } catch (NumberFormatException e) {
+            System.err.println(USAGE);
+        } catch (IOException e) {
+            System.err.println("Failed to read the frames: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ascii_art;
+
+import image.Image;
+import image.ImageProcessing;
+import image_char_matching.CharMatcherSnapshot;
+import image_char_matching.SubImgCharMatcher;
+
+/**
+ * Renders a sequence of frames, such as the frames of a video, to ASCII art incrementally.
+ * The brightness of every sub-image is summed directly from the pixels of each frame into a reused
+ * matrix, since a frame is measured only once and a brightness index would not pay off, but a
+ * sub-image is matched to a char again only if its brightness moved by more than a threshold since
+ * the last time it was matched. A frame of a different size, or a change of the char set, renders
+ * the whole frame again.
+ */
+public class FrameSequenceRenderer {
+    private final int numCharsInRow;          // Number of characters in each row of the output.
+    private final SubImgCharMatcher matcher;  // Character matcher for mapping brightness to characters.
+    private final double threshold;           // Brightness change below which a char is kept.
+    private CharMatcherSnapshot lastSnapshot; // Char set the current chars were matched with.
+    private double[][] matchedBrightness;     // Brightness each current char was matched with.
+    private double[][] frameBrightness;       // Brightness of the sub-images of the current frame.
+    private char[][] asciiArt;                // Chars of the current frame, reused between frames.
+    private int lastRematchedTiles;           // Number of sub-images matched again by the last render.
+
+    /**
+     * Constructor of a renderer of frames to a given number of chars in each row.
+     * @param numCharsInRow Number of characters in each row of the output ASCII art.
+     * @param matcher Character matcher for mapping brightness to characters.
+     * @param threshold Brightness change, between 0 and 1, below which a sub-image keeps its char.
+     */
+    public FrameSequenceRenderer(int numCharsInRow, SubImgCharMatcher matcher, double threshold) {
+        this.numCharsInRow = numCharsInRow;
+        this.matcher = matcher;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Method to render the next frame.
+     * @param frame The frame.
+     * @return the ASCII art of the frame. The array is reused by the next render, so it must be copied
+     * to be kept.
+     */
+    public char[][] render(Image frame) {
+        int numRows = ImageProcessing.getNumSubImagesInCol(frame, numCharsInRow);
+        CharMatcherSnapshot snapshot = matcher.getSnapshot();
+        boolean renderAll = asciiArt == null || asciiArt.length != numRows || snapshot != lastSnapshot;
+        if (renderAll) {
+            asciiArt = new char[numRows][numCharsInRow];
+            matchedBrightness = new double[numRows][numCharsInRow];
+            frameBrightness = new double[numRows][numCharsInRow];
+            lastSnapshot = snapshot;
+        }
+        ImageProcessing.calculateSubImagesBrightness(frame, numCharsInRow, frameBrightness, 0, numRows);
+        int rematchedTiles = 0;
+        for (int i = 0; i < numRows; ++i) {
+            for (int j = 0; j < numCharsInRow; ++j) {
+                double brightness = frameBrightness[i][j];
+                // Compared with the brightness the char was matched with, so slow drifts add up.
+                if (renderAll || Math.abs(brightness - matchedBrightness[i][j]) > threshold) {
+                    asciiArt[i][j] = snapshot.getCharByImageBrightness(brightness);
+                    matchedBrightness[i][j] = brightness;
+                    ++rematchedTiles;
+                }
+            }
+        }
+        lastRematchedTiles = rematchedTiles;
+        return asciiArt;
+    }
+
+    /**
+     * Getter method for the number of characters in each row of the output.
+     * @return the number of characters in each row.
+     */
+    public int getNumCharsInRow() {
+        return numCharsInRow;
+    }
+
+    /**
+     * Getter method for the number of sub-images matched to a char again by the last render.
+     * @return the number of sub-images, out of all the sub-images of the last frame.
+     */
+    public int getLastRematchedTiles() {
+        return lastRematchedTiles;
+    }
+}
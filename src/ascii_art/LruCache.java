@@ -0,0 +1,68 @@
+package ascii_art;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache bounded by the total size of its values in bytes, evicting the least recently used entries
+ * first. The size of each value is estimated by a given function. It is not thread-safe.
+ *
+ * @param <K> type of the keys, compared by equals.
+ * @param <V> type of the values.
+ */
+class LruCache<K, V> {
+    // Entries in access order, the least recently used first.
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ToLongFunction<V> sizeOf; // Estimated size of a value in bytes.
+    private final long maxBytes;            // Largest total size of the values.
+    private long bytes;                     // Total size of the values.
+
+    /**
+     * Constructor of an empty cache.
+     * @param maxBytes largest total size of the values in bytes. A larger value is not cached.
+     * @param sizeOf function estimating the size of a value in bytes.
+     */
+    LruCache(long maxBytes, ToLongFunction<V> sizeOf) {
+        this.maxBytes = maxBytes;
+        this.sizeOf = sizeOf;
+    }
+
+    /**
+     * Get the value of a key, marking it as the most recently used.
+     * @return the value, or null if it is not cached.
+     */
+    V get(K key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Cache a value, evicting the least recently used values until the total size fits.
+     */
+    void put(K key, V value) {
+        long size = sizeOf.applyAsLong(value);
+        V previous = entries.remove(key);
+        if (previous != null) {
+            bytes -= sizeOf.applyAsLong(previous);
+        }
+        if (size > maxBytes) {
+            return;
+        }
+        entries.put(key, value);
+        bytes += size;
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            bytes -= sizeOf.applyAsLong(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Remove all the values.
+     */
+    void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+}
@@ -2,10 +2,31 @@ package ascii_art;
 
 import ascii_output.AsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
+import image.BrightnessIndex;
+import image.BrightnessPyramid;
 import image.Image;
+import image_char_matching.CharMatcherSnapshot;
+import image_char_matching.GlyphSet;
+import image_char_matching.StructuralCharMatcher;
 import image_char_matching.SubImgCharMatcher;
-
+import metrics.RenderMetrics;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Represents a shell for interacting with ASCII art generation and manipulation.
@@ -58,6 +79,30 @@ public class Shell {
      * Command constant for running the ASCII art algorithm.
      */
     private static final String RUN_ALGORITHM_COMMAND = "asciiArt";
+
+    /**
+     * Command constant for printing the render metrics, or enabling, disabling or resetting them.
+     */
+    private static final String STATS_COMMAND = "stats";
+    /**
+     * Params to put after stats command to enable, disable or reset the metrics.
+     */
+    private static final String STATS_ON_PARAM = "on";
+    private static final String STATS_OFF_PARAM = "off";
+    private static final String STATS_RESET_PARAM = "reset";
+
+    /**
+     * Command constant for changing how sub-images are matched to characters.
+     */
+    private static final String CHANGE_MATCH_METHOD_COMMAND = "match";
+    /**
+     * Param to put after match command to match sub-images by brightness.
+     */
+    private static final String MATCH_BRIGHTNESS_PARAM = "brightness";
+    /**
+     * Param to put after match command to match sub-images by shape.
+     */
+    private static final String MATCH_SHAPE_PARAM = "shape";
     /**
      * Param to put after add command to add space char.
      */
@@ -66,6 +111,14 @@ public class Shell {
      * Param to put after add command to add all chars.
      */
     private static final String ADD_ALL_PARAM = "all";
+    /**
+     * Param to put after add command to add the Unicode block elements.
+     */
+    private static final String ADD_BLOCKS_PARAM = "blocks";
+    /**
+     * Param to put after add command to add the Unicode Braille patterns.
+     */
+    private static final String ADD_BRAILLE_PARAM = "braille";
 
     /**
      * String for upping the resolution in the res command.
@@ -157,6 +210,18 @@ public class Shell {
      * Default font for html output file.
      */
     private static final String DEFAULT_FONT = "Courier New";
+    /**
+     * Largest total size in bytes of the cached ASCII art.
+     */
+    private static final long RENDER_CACHE_BYTES = 32L << 20;
+    /**
+     * Estimated size in bytes of the header of an array object.
+     */
+    private static final int ARRAY_HEADER_BYTES = 16;
+    /**
+     * Name of the thread loading images in the background.
+     */
+    private static final String IMAGE_LOADER_THREAD_NAME = "image-loader";
     //ERROR MESSAGES
     /**
      * Error string for when an invalid command was entered.
@@ -187,6 +252,20 @@ public class Shell {
      */
     private static final String RES_COMMAND_INCORRECT_FORMAT_ERROR_MSG =
             "Did not change resolution due to incorrect format.";
+    /**
+     * Error string for match command when entering invalid params.
+     */
+    private static final String MATCH_COMMAND_INCORRECT_FORMAT_ERROR_MSG =
+            "Did not change match method due to incorrect format.";
+    /**
+     * Error string for stats command when entering invalid params.
+     */
+    private static final String STATS_COMMAND_INCORRECT_FORMAT_ERROR_MSG =
+            "Did not change stats due to incorrect format.";
+    /**
+     * Message of the stats command while metrics are disabled.
+     */
+    private static final String STATS_DISABLED_MSG = "Stats are disabled, enable them with \"stats on\".";
 
     // CLASS FIELDS
 
@@ -200,6 +279,18 @@ public class Shell {
      */
     private Image image;
 
+    /**
+     * Brightness index of the image, built once per image and reused by every run of the algorithm.
+     */
+    private BrightnessIndex brightnessIndex;
+
+    /**
+     * Brightness of the sub-images of the image at every resolution used so far. Resolutions change by
+     * factors of two, so each one is built from a finer one, and a change of the char set only repeats
+     * the mapping of brightness to characters.
+     */
+    private BrightnessPyramid brightnessPyramid;
+
     /**
      * Output method for displaying ASCII art.
      */
@@ -210,6 +301,44 @@ public class Shell {
      */
     private int imageResolution;
 
+    /**
+     * Whether sub-images are matched to characters by shape rather than by brightness.
+     */
+    private boolean matchByShape;
+
+    /**
+     * Number of images loaded before the current image, identifying it in the caches.
+     */
+    private long imageVersion;
+
+    /**
+     * Key of a render: the ASCII art depends only on the image, resolution, char set and match method.
+     */
+    private record RenderKey(long imageVersion, int resolution, long charsetVersion, boolean matchByShape) {
+    }
+
+    /**
+     * Recently rendered ASCII art, so that running the algorithm again without changes is free.
+     */
+    private final LruCache<RenderKey, char[][]> renderCache =
+            new LruCache<>(RENDER_CACHE_BYTES, Shell::sizeOf);
+
+    /**
+     * Thread decoding images and building their brightness index in the background, one image at a
+     * time, so that cancelled loads never run alongside the current one. A daemon thread, so that a
+     * load in progress does not keep the program running after the exit command.
+     */
+    private final ExecutorService imageLoader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, IMAGE_LOADER_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Image being loaded in the background, or null if the last image command was already applied.
+     */
+    private Future<BrightnessPyramid> pendingImage;
+
     /**
      * Constructor for the Shell class.
      * Initializes the shell with default settings.
@@ -219,6 +348,8 @@ public class Shell {
     public Shell() throws IOException {
         chars = new SubImgCharMatcher(DEFAULT_CHAR_SET);
         image = new Image(DEFAULT_IMAGE);
+        brightnessIndex = new BrightnessIndex(image);
+        brightnessPyramid = new BrightnessPyramid(brightnessIndex);
         asciiOutput = DEFAULT_ASCII_OUTPUT;
         imageResolution = DEFAULT_IMAGE_RESOLUTION;
     }
@@ -267,6 +398,8 @@ public class Shell {
             showChars();
         } else if (commandWords[COMMAND_WORD_INDEX].equals(RUN_ALGORITHM_COMMAND)) {
             runAsciiArtAlgorithm();
+        } else if (commandWords[COMMAND_WORD_INDEX].equals(STATS_COMMAND)) {
+            showStats();
         } else if (!commandWords[COMMAND_WORD_INDEX].equals(EXIT_COMMAND)) {
             System.out.println(INCORRECT_COMMAND_ERROR_MSG);
         }
@@ -285,6 +418,8 @@ public class Shell {
             case CHANGE_IMG_RESOLUTION_COMMAND -> changeImgResolution(commandWords[COMMAND_PARAMS_INDEX]);
             case CHANGE_IMG_COMMAND -> changeImg(commandWords[COMMAND_PARAMS_INDEX]);
             case CHANGE_OUTPUT_METHOD_COMMAND -> changeOutputMethod(commandWords[COMMAND_PARAMS_INDEX]);
+            case CHANGE_MATCH_METHOD_COMMAND -> changeMatchMethod(commandWords[COMMAND_PARAMS_INDEX]);
+            case STATS_COMMAND -> changeStats(commandWords[COMMAND_PARAMS_INDEX]);
             default -> System.out.println(INCORRECT_COMMAND_ERROR_MSG);
         }
     }
@@ -307,9 +442,11 @@ public class Shell {
      */
     private void addChar(String charsToAdd) throws InvalidParamsException {
         if (charsToAdd.equals(ADD_ALL_PARAM)) {
-            for (int i = MIN_CHAR_VALUE; i <= MAX_CHAR_VALUE; i++) {
-                chars.addChar((char) i);
-            }
+            chars.addChars(GlyphSet.range((char) MIN_CHAR_VALUE, (char) MAX_CHAR_VALUE));
+        } else if (charsToAdd.equals(ADD_BLOCKS_PARAM)) {
+            chars.addChars(GlyphSet.blockElements().getChars());
+        } else if (charsToAdd.equals(ADD_BRAILLE_PARAM)) {
+            chars.addChars(GlyphSet.braillePatterns().getChars());
         } else if (charsToAdd.equals(ADD_SPACE_PARAM)) {
             chars.addChar(' ');
         } else if (isCharRange(charsToAdd)) {
@@ -361,12 +498,10 @@ public class Shell {
                 charsToAdd.charAt(SECOND_CHAR_RANGE_INDEX) ? charsToAdd.charAt(SECOND_CHAR_RANGE_INDEX) :
                 charsToAdd.charAt(FIRST_CHAR_RANGE_INDEX);
 
-        for (int i = smaller; i <= bigger; i++) {
-            if (isAddition) {
-                chars.addChar((char) i);
-            } else {
-                chars.removeChar((char) i);
-            }
+        if (isAddition) {
+            chars.addChars(GlyphSet.range(smaller, bigger));
+        } else {
+            chars.removeChars(GlyphSet.range(smaller, bigger));
         }
     }
 
@@ -378,9 +513,11 @@ public class Shell {
      */
     private void removeChar(String charsToRemove) throws InvalidParamsException {
         if (charsToRemove.equals(ADD_ALL_PARAM)) {
-            for (int i = MIN_CHAR_VALUE; i <= MAX_CHAR_VALUE; i++) {
-                chars.removeChar((char) i);
-            }
+            chars.removeChars(GlyphSet.range((char) MIN_CHAR_VALUE, (char) MAX_CHAR_VALUE));
+        } else if (charsToRemove.equals(ADD_BLOCKS_PARAM)) {
+            chars.removeChars(GlyphSet.blockElements().getChars());
+        } else if (charsToRemove.equals(ADD_BRAILLE_PARAM)) {
+            chars.removeChars(GlyphSet.braillePatterns().getChars());
         } else if (charsToRemove.equals(ADD_SPACE_PARAM)) {
             chars.removeChar(' ');
         } else if (isCharRange(charsToRemove)) {
@@ -400,6 +537,7 @@ public class Shell {
      * @throws InvalidParamsException if the parameters provided are invalid.
      */
     private void changeImgResolution(String changeResolutionCommand) throws InvalidParamsException {
+        awaitImage();
         int minCharsInRow = Math.max(1, image.getWidth() / image.getHeight());
         if (changeResolutionCommand.equals(UP_PARAM_RES_COMMAND)) {
             if ((imageResolution * CHANGE_RESOLUTION_FACTOR > image.getWidth()) ||
@@ -420,16 +558,148 @@ public class Shell {
     }
 
     /**
-     * Changes the image based on user input.
+     * Changes the image based on user input. The image is decoded and indexed in the background, so
+     * the command returns at once; commands that need the image wait for it. A load still in progress
+     * from an earlier image command is cancelled.
      *
      * @param changeImgCommand the command to change the image.
      */
     private void changeImg(String changeImgCommand) {
         try {
-            image = new Image(changeImgCommand);
-        } catch (IOException e) {
+            if (!Files.isReadable(Path.of(changeImgCommand))) {
+                System.out.println(IMG_COMMAND_ERROR_MSG);
+                return;
+            }
+        } catch (InvalidPathException e) {
             System.out.println(IMG_COMMAND_ERROR_MSG);
+            return;
+        }
+        if (pendingImage != null) {
+            pendingImage.cancel(true);
         }
+        pendingImage = imageLoader.submit(() -> loadImage(changeImgCommand));
+    }
+
+    /**
+     * Decodes an image and builds its brightness index, stopping early if the load is cancelled.
+     *
+     * @param path the path of the image.
+     * @return an empty pyramid of the image, holding its index and the image itself.
+     * @throws IOException if the image cannot be decoded.
+     * @throws InterruptedException if the load was cancelled.
+     */
+    private BrightnessPyramid loadImage(String path) throws IOException, InterruptedException {
+        RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.DECODE);
+        Image loadedImage = new Image(decodeImage(path));
+        RenderMetrics.stop(timer);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return new BrightnessPyramid(new BrightnessIndex(loadedImage));
+    }
+
+    /**
+     * Decodes an image, aborting the decode as soon as the load is cancelled. Interrupting the loader
+     * thread does not stop a decode, and some readers may only be aborted from the thread reading, so
+     * the reader checks for the interrupt whenever it reports progress.
+     *
+     * @param path the path of the image.
+     * @return the decoded image.
+     * @throws IOException if the image cannot be decoded.
+     * @throws InterruptedException if the load was cancelled, and the decode aborted.
+     */
+    private BufferedImage decodeImage(String path) throws IOException, InterruptedException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(path))) {
+            if (input == null) {
+                throw new IIOException("Cannot open the image");
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IIOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.addIIOReadProgressListener(new AbortOnInterrupt());
+                reader.setInput(input, true, true);
+                BufferedImage decoded = reader.read(0);
+                // An aborted read returns the part decoded so far.
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                return decoded;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Aborts the read of an image once the reading thread is interrupted.
+     */
+    private static class AbortOnInterrupt implements IIOReadProgressListener {
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            if (Thread.currentThread().isInterrupted()) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+
+    /**
+     * Waits for the image of the last image command, if it is still loading, and makes it the current
+     * image. If it cannot be decoded, an error is printed and the current image is kept.
+     */
+    private void awaitImage() {
+        if (pendingImage == null) {
+            return;
+        }
+        try {
+            BrightnessPyramid loadedPyramid = pendingImage.get();
+            brightnessPyramid = loadedPyramid;
+            brightnessIndex = loadedPyramid.getIndex();
+            image = brightnessIndex.getImage();
+            // Renders of the previous images cannot be used again.
+            ++imageVersion;
+            renderCache.clear();
+        } catch (ExecutionException e) {
+            System.out.println(IMG_COMMAND_ERROR_MSG);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        pendingImage = null;
     }
 
     /**
@@ -444,11 +714,92 @@ public class Shell {
     }
 
     /**
-     * Runs the ASCII art algorithm and outputs the result.
+     * Changes how sub-images are matched to characters based on user input.
+     *
+     * @param changeMatchCommand the command to change the match method.
+     * @throws InvalidParamsException if the parameters provided are invalid.
+     */
+    private void changeMatchMethod(String changeMatchCommand) throws InvalidParamsException {
+        if (changeMatchCommand.equals(MATCH_BRIGHTNESS_PARAM)) {
+            matchByShape = false;
+        } else if (changeMatchCommand.equals(MATCH_SHAPE_PARAM)) {
+            matchByShape = true;
+        } else {
+            throw new InvalidParamsException(MATCH_COMMAND_INCORRECT_FORMAT_ERROR_MSG);
+        }
+    }
+
+    /**
+     * Runs the ASCII art algorithm and outputs the result. The result is cached, and reused until the
+     * image, resolution, char set or match method change.
      */
     private void runAsciiArtAlgorithm() {
-        AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(image, imageResolution, chars);
-        asciiOutput.out(asciiArtAlgorithm.run());
+        awaitImage();
+        RenderKey renderKey = new RenderKey(imageVersion, imageResolution, chars.getVersion(), matchByShape);
+        char[][] asciiArt = renderCache.get(renderKey);
+        if (asciiArt == null) {
+            asciiArt = render();
+            renderCache.put(renderKey, asciiArt);
+        }
+        RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.OUTPUT);
+        asciiOutput.out(asciiArt);
+        RenderMetrics.stop(timer);
+    }
+
+    /**
+     * Prints the render metrics recorded since they were enabled or reset.
+     */
+    private void showStats() {
+        RenderMetrics metrics = RenderMetrics.getInstance();
+        System.out.println(metrics.isEnabled() ? metrics.getReport() : STATS_DISABLED_MSG);
+    }
+
+    /**
+     * Enables, disables or resets the render metrics based on user input.
+     *
+     * @param changeStatsCommand the command to change the metrics.
+     * @throws InvalidParamsException if the parameters provided are invalid.
+     */
+    private void changeStats(String changeStatsCommand) throws InvalidParamsException {
+        RenderMetrics metrics = RenderMetrics.getInstance();
+        switch (changeStatsCommand) {
+            case STATS_ON_PARAM -> metrics.setEnabled(true);
+            case STATS_OFF_PARAM -> metrics.setEnabled(false);
+            case STATS_RESET_PARAM -> metrics.reset();
+            default -> throw new InvalidParamsException(STATS_COMMAND_INCORRECT_FORMAT_ERROR_MSG);
+        }
+    }
+
+    /**
+     * Renders the current image with the current resolution, char set and match method.
+     *
+     * @return the ASCII art.
+     */
+    private char[][] render() {
+        if (matchByShape) {
+            // Glyph bitmaps are cached, so building the matcher for the current chars is cheap.
+            CharMatcherSnapshot snapshot = chars.getSnapshot();
+            char[] charset = new char[snapshot.size()];
+            int i = 0;
+            for (char c : snapshot.getSortedCharAlphabeticallyList()) {
+                charset[i++] = c;
+            }
+            return new AsciiArtAlgorithm(brightnessIndex, imageResolution,
+                    new StructuralCharMatcher(GlyphSet.of(charset)), null).run();
+        }
+        return new AsciiArtAlgorithm(brightnessIndex, imageResolution, chars)
+                .run(brightnessPyramid.getSubImagesBrightness(imageResolution));
+    }
+
+    /**
+     * Estimates the size in bytes of a matrix of chars.
+     */
+    private static long sizeOf(char[][] matrix) {
+        long size = ARRAY_HEADER_BYTES + (long) Long.BYTES * matrix.length;
+        for (char[] row : matrix) {
+            size += ARRAY_HEADER_BYTES + (long) Character.BYTES * row.length;
+        }
+        return size;
     }
 
     /**
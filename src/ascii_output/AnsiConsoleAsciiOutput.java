@@ -0,0 +1,128 @@
+package ascii_output;
+
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Output a sequence of 2D arrays of chars to an ANSI terminal, redrawing only what changed.
+ * The first frame, or a frame of a different size, clears the screen and is printed whole. Every
+ * following frame is compared with the previous one, and only the runs of changed cells are printed,
+ * each after a cursor move to its position. Runs separated by a few unchanged cells are joined, since
+ * printing the unchanged cells is shorter than another cursor move.
+ */
+public class AnsiConsoleAsciiOutput implements AsciiOutput {
+    private static final String ESCAPE = "\u001b[";
+    private static final String CLEAR_SCREEN = ESCAPE + "H" + ESCAPE + "2J";
+    private static final char CURSOR_POSITION_SEPARATOR = ';';
+    private static final char CURSOR_POSITION_END = 'H';
+    private static final char NEW_LINE = '\n';
+    // Longest run of unchanged cells printed to join two runs of changed cells.
+    private static final int MAX_JOINED_GAP = 4;
+
+    private final String separator;
+    private final ChannelEncoder encoder;                           // Encodes frames in the console charset.
+    private final StringBuilder frameBuilder = new StringBuilder();  // Escapes and chars, reused.
+    private char[][] previousFrame;                                 // Copy of the last printed frame.
+
+    public AnsiConsoleAsciiOutput() {
+        this(ConsoleAsciiOutput.DEFAULT_SEPARATOR);
+    }
+
+    /**
+     * Constructor of an output printing a given string after each char.
+     * @param separator string printed after each char, may be empty.
+     */
+    public AnsiConsoleAsciiOutput(String separator) {
+        this(separator, ConsoleAsciiOutput.STANDARD_OUTPUT);
+    }
+
+    /**
+     * Constructor of an output printing frames to a given channel instead of the standard output.
+     * @param separator string printed after each char, may be empty.
+     * @param channel channel to write the frames to. It is not closed by this output.
+     */
+    public AnsiConsoleAsciiOutput(String separator, WritableByteChannel channel) {
+        this.separator = separator;
+        this.encoder = new ChannelEncoder(channel, Charset.defaultCharset(), ConsoleAsciiOutput.BUFFER_SIZE);
+    }
+
+    @Override
+    public void out(char[][] chars) {
+        frameBuilder.setLength(0);
+        if (previousFrame == null || !hasSameSize(chars)) {
+            frameBuilder.append(CLEAR_SCREEN);
+            previousFrame = new char[chars.length][];
+            for (int y = 0; y < chars.length; ++y) {
+                appendCells(chars[y], 0, chars[y].length);
+                frameBuilder.append(NEW_LINE);
+                previousFrame[y] = chars[y].clone();
+            }
+        } else {
+            for (int y = 0; y < chars.length; ++y) {
+                appendChangedCells(y, chars[y]);
+            }
+            // Leave the cursor below the frame.
+            appendCursorMove(chars.length, 0);
+        }
+        ConsoleAsciiOutput.print(encoder, CharBuffer.wrap(frameBuilder));
+    }
+
+    /**
+     * Append the changed runs of a row, each after a cursor move, and remember them.
+     */
+    private void appendChangedCells(int y, char[] row) {
+        char[] previousRow = previousFrame[y];
+        int x = 0;
+        while (x < row.length) {
+            if (row[x] == previousRow[x]) {
+                ++x;
+                continue;
+            }
+            int runStart = x;
+            int runEnd = x + 1; // Exclusive end of the run, extended over short gaps.
+            for (int next = runEnd; next < row.length && next - runEnd <= MAX_JOINED_GAP; ++next) {
+                if (row[next] != previousRow[next]) {
+                    runEnd = next + 1;
+                }
+            }
+            appendCursorMove(y, runStart);
+            appendCells(row, runStart, runEnd);
+            System.arraycopy(row, runStart, previousRow, runStart, runEnd - runStart);
+            x = runEnd;
+        }
+    }
+
+    /**
+     * Append the cells of a row in a range, each followed by the separator.
+     */
+    private void appendCells(char[] row, int from, int to) {
+        for (int x = from; x < to; ++x) {
+            frameBuilder.append(row[x]).append(separator);
+        }
+    }
+
+    /**
+     * Append a move of the cursor to the cell of a given row and column.
+     */
+    private void appendCursorMove(int y, int x) {
+        // ANSI positions are 1-based, and each cell is followed by the separator.
+        frameBuilder.append(ESCAPE).append(y + 1).append(CURSOR_POSITION_SEPARATOR)
+                .append(x * (1 + separator.length()) + 1).append(CURSOR_POSITION_END);
+    }
+
+    /**
+     * Check whether a frame has the size of the previous frame.
+     */
+    private boolean hasSameSize(char[][] chars) {
+        if (chars.length != previousFrame.length) {
+            return false;
+        }
+        for (int y = 0; y < chars.length; ++y) {
+            if (chars[y].length != previousFrame[y].length) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
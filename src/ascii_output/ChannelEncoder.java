@@ -0,0 +1,78 @@
+package ascii_output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encodes chars in a charset and writes the bytes to a channel through a reused buffer, in chunks of the
+ * buffer size. Chars the charset cannot encode, and unpaired surrogates, are replaced by the replacement
+ * of the charset (usually '?') instead of ending the output.
+ */
+final class ChannelEncoder {
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer buffer;
+
+    /**
+     * Constructor of an encoder writing to a channel.
+     * @param channel channel to write the bytes to. It is not closed by this encoder.
+     * @param charset charset to encode the chars in.
+     * @param bufferSize size in bytes of the chunks written to the channel.
+     */
+    ChannelEncoder(WritableByteChannel channel, Charset charset, int bufferSize) {
+        this.channel = channel;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, (int) Math.ceil(encoder.maxBytesPerChar())));
+    }
+
+    /**
+     * Encode all the chars into the buffer, writing the buffer to the channel whenever it is full. The
+     * bytes may stay in the buffer until the next call to flush.
+     * @param chars the chars to encode, consumed entirely.
+     * @throws IOException if writing to the channel fails.
+     */
+    void write(CharBuffer chars) throws IOException {
+        // Each call is a whole input, so no char is left behind in the encoder between calls.
+        encoder.reset();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, buffer, true);
+            check(result);
+        } while (result.isOverflow());
+        do {
+            result = encoder.flush(buffer);
+            check(result);
+        } while (result.isOverflow());
+    }
+
+    /**
+     * Write the bytes left in the buffer to the channel.
+     * @throws IOException if writing to the channel fails.
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write the buffer to the channel if the encoder needs more room, and throw on coding errors.
+     */
+    private void check(CoderResult result) throws IOException {
+        if (result.isOverflow()) {
+            flush();
+        } else if (result.isError()) {
+            result.throwException(); // Not expected, since errors are replaced.
+        }
+    }
+}
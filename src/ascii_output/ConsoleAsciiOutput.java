@@ -1,16 +1,113 @@
 package ascii_output;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+
 /**
  * Output a 2D array of chars to the console.
+ * The whole frame is built into one reused buffer and written to the standard output file descriptor
+ * in large chunks, bypassing the synchronized System.out stream. Chars the console charset cannot
+ * encode are printed as its replacement char, usually '?'.
  * @author Dan Nirel
  */public class ConsoleAsciiOutput implements AsciiOutput{
+    /**
+     * Default string printed after each char.
+     */
+    public static final String DEFAULT_SEPARATOR = " ";
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    // Size in bytes of the chunks written to the console.
+    static final int BUFFER_SIZE = 1 << 16;
+    // Raw channel of the standard output. It is shared and never closed.
+    static final WritableByteChannel STANDARD_OUTPUT =
+            new FileOutputStream(FileDescriptor.out).getChannel();
+
+    private final String separator;
+    private final ChannelEncoder encoder;    // Encoder of the frames to the channel, in the console charset.
+    private char[] frameBuffer = new char[0]; // Chars of the frame, reused between frames.
+
+    public ConsoleAsciiOutput() {
+        this(DEFAULT_SEPARATOR);
+    }
+
+    /**
+     * Constructor of a console output printing a given string after each char.
+     * @param separator string printed after each char, may be empty.
+     */
+    public ConsoleAsciiOutput(String separator) {
+        this(separator, STANDARD_OUTPUT);
+    }
+
+    /**
+     * Constructor of an output printing frames to a given channel instead of the standard output.
+     * @param separator string printed after each char, may be empty.
+     * @param channel channel to write the frames to. It is not closed by this output.
+     */
+    public ConsoleAsciiOutput(String separator, WritableByteChannel channel) {
+        this(separator, channel, Charset.defaultCharset());
+    }
+
+    /**
+     * Constructor of an output printing frames to a given channel in a given charset, instead of the
+     * charset of the console.
+     * @param separator string printed after each char, may be empty.
+     * @param channel channel to write the frames to. It is not closed by this output.
+     * @param charset charset to encode the frames in.
+     */
+    public ConsoleAsciiOutput(String separator, WritableByteChannel channel, Charset charset) {
+        this.separator = separator;
+        this.encoder = new ChannelEncoder(channel, charset, BUFFER_SIZE);
+    }
+
     @Override
     public void out(char[][] chars) {
+        int length = buildFrame(chars);
+        print(encoder, CharBuffer.wrap(frameBuffer, 0, length));
+    }
+
+    /**
+     * Print a built frame to the console through an encoder, after whatever was printed through
+     * System.out. Failures are logged, since a frame is not worth stopping the caller for.
+     * @param encoder encoder writing to the console channel.
+     * @param frame the chars of the frame.
+     */
+    static void print(ChannelEncoder encoder, CharBuffer frame) {
+        // Whatever was printed through System.out must appear before the frame.
+        System.out.flush();
+        try {
+            encoder.write(frame);
+            encoder.flush();
+        } catch (IOException e) {
+            Logger.getGlobal().severe("Failed to write to the console");
+        }
+    }
+
+    /**
+     * Build the frame into the frame buffer, growing it if needed.
+     * @return the number of chars of the frame.
+     */
+    private int buildFrame(char[][] chars) {
+        int maxLength = LINE_SEPARATOR.length() * chars.length;
+        for (char[] row : chars) {
+            maxLength += row.length * (1 + separator.length());
+        }
+        if (frameBuffer.length < maxLength) {
+            frameBuffer = new char[maxLength];
+        }
+        int length = 0;
         for (int y = 0; y < chars.length ; y++) {
             for (int x = 0; x < chars[y].length; x++) {
-                System.out.print(chars[y][x] + " ");
+                frameBuffer[length++] = chars[y][x];
+                separator.getChars(0, separator.length(), frameBuffer, length);
+                length += separator.length();
             }
-            System.out.println();
+            LINE_SEPARATOR.getChars(0, LINE_SEPARATOR.length(), frameBuffer, length);
+            length += LINE_SEPARATOR.length();
         }
+        return length;
     }
 }
@@ -1,63 +1,151 @@
 package ascii_output;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Output a 2D array of chars to an HTML file viewable in a web browser.
+ * Each row is escaped into a reused char buffer, and the encoded bytes are written to the file through
+ * an NIO channel in chunks of the buffer size. A file name ending with ".gz" is written gzip-compressed.
  * @author Dan Nirel
  */
 public class HtmlAsciiOutput implements AsciiOutput {
     private static final double BASE_LINE_SPACING = 0.8;
     private static final double BASE_FONT_SIZE = 150.0;
+    /**
+     * Default size in bytes of the chunks written to the file.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final int MAX_ESCAPED_CHAR_LENGTH = 5; // Length of "&amp;".
+    private static final String LINE_SEPARATOR = System.lineSeparator();
 
     private final String fontName;
     private final String filename;
+    private final int bufferSize;
+    private char[] rowBuffer = new char[0]; // Escaped chars of the current row, reused between rows.
 
     public HtmlAsciiOutput(String filename, String fontName) {
+        this(filename, fontName, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor of an output writing to the file in chunks of a given size.
+     * @param filename name of the file to write, ending with ".gz" to compress it.
+     * @param fontName font to display the chars in.
+     * @param bufferSize size in bytes of the chunks written to the file.
+     */
+    public HtmlAsciiOutput(String filename, String fontName, int bufferSize) {
         this.fontName = fontName;
         this.filename = filename;
+        this.bufferSize = bufferSize;
     }
 
     @Override
     public void out(char[][] chars) {
-        try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write(String.format(
-                "<!DOCTYPE html>\n"+
-                "<html>\n"+
-                "<body style=\""+
-                    "\tCOLOR:#000000;"+
-                    "\tTEXT-ALIGN:center;"+
-                    "\tFONT-SIZE:1px;\">\n"+
-                "<p style=\""+
-                    "\twhite-space:pre;"+
-                    "\tFONT-FAMILY:%s;"+
-                    "\tFONT-SIZE:%frem;"+
-                    "\tLETTER-SPACING:0.15em;"+
-                    "\tLINE-HEIGHT:%fem;\">\n",
-                    fontName, BASE_FONT_SIZE/chars[0].length, BASE_LINE_SPACING));
-
-            for(int y = 0 ; y < chars.length ; y++) {
-                for (int x = 0; x < chars[y].length ; x++) {
-                    String htmlRep;
-                    switch(chars[y][x]) {
-                        case '<': htmlRep = "&lt;";  break;
-                        case '>': htmlRep = "&gt;";  break;
-                        case '&': htmlRep = "&amp;"; break;
-                        default:  htmlRep = String.valueOf(chars[y][x]);
-                    }
-                    writer.write(htmlRep);
-                }
-                writer.newLine();
-            }
-            writer.write(
-                "</p>\n"+
-                "</body>\n"+
-                "</html>\n");
+        try {
+            write(chars);
         } catch(IOException e) {
             Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
         }
     }
+
+    /**
+     * Write the HTML page of a 2D array of chars to the file, reporting failures to the caller.
+     * @param chars the chars to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(char[][] chars) throws IOException {
+        try(WritableByteChannel channel = openChannel()) {
+            writeTo(chars, channel);
+        }
+    }
+
+    /**
+     * Write the HTML page of a 2D array of chars to a channel instead of the file.
+     * @param chars the chars to write.
+     * @param channel the channel to write to. It is not closed.
+     * @throws IOException if writing to the channel fails.
+     */
+    public void writeTo(char[][] chars, WritableByteChannel channel) throws IOException {
+        ChannelEncoder encoder = new ChannelEncoder(channel, StandardCharsets.UTF_8, bufferSize);
+        encoder.write(CharBuffer.wrap(String.format(
+            "<!DOCTYPE html>\n"+
+            "<html>\n"+
+            "<head>\n"+
+            "<meta charset=\"utf-8\">\n"+
+            "</head>\n"+
+            "<body style=\""+
+                "\tCOLOR:#000000;"+
+                "\tTEXT-ALIGN:center;"+
+                "\tFONT-SIZE:1px;\">\n"+
+            "<p style=\""+
+                "\twhite-space:pre;"+
+                "\tFONT-FAMILY:%s;"+
+                "\tFONT-SIZE:%frem;"+
+                "\tLETTER-SPACING:0.15em;"+
+                "\tLINE-HEIGHT:%fem;\">\n",
+                fontName, BASE_FONT_SIZE/chars[0].length, BASE_LINE_SPACING)));
+
+        for(int y = 0 ; y < chars.length ; y++) {
+            int rowLength = escapeRow(chars[y]);
+            encoder.write(CharBuffer.wrap(rowBuffer, 0, rowLength));
+        }
+        encoder.write(CharBuffer.wrap(
+            "</p>\n"+
+            "</body>\n"+
+            "</html>\n"));
+        encoder.flush();
+    }
+
+    /**
+     * Escape a row of chars, followed by a line separator, into the row buffer.
+     * @return the number of chars written to the row buffer.
+     */
+    private int escapeRow(char[] row) {
+        int maxLength = row.length * MAX_ESCAPED_CHAR_LENGTH + LINE_SEPARATOR.length();
+        if (rowBuffer.length < maxLength) {
+            rowBuffer = new char[maxLength];
+        }
+        int length = 0;
+        for (char c : row) {
+            switch(c) {
+                case '<': length = append(length, "&lt;");  break;
+                case '>': length = append(length, "&gt;");  break;
+                case '&': length = append(length, "&amp;"); break;
+                default:  rowBuffer[length++] = c;
+            }
+        }
+        return append(length, LINE_SEPARATOR);
+    }
+
+    /**
+     * Append a string to the row buffer at a given position.
+     * @return the position after the appended string.
+     */
+    private int append(int position, String string) {
+        string.getChars(0, string.length(), rowBuffer, position);
+        return position + string.length();
+    }
+
+    /**
+     * Open the channel to write the file through, compressing it if its name ends with ".gz".
+     */
+    private WritableByteChannel openChannel() throws IOException {
+        Path path = Path.of(filename);
+        if (filename.endsWith(GZIP_EXTENSION)) {
+            return Channels.newChannel(new GZIPOutputStream(Files.newOutputStream(path), bufferSize));
+        }
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
 }
@@ -0,0 +1,94 @@
+package image;
+
+import metrics.RenderMetrics;
+
+/**
+ * A summed-area table of the grey levels of an image. It is built once per image, and then gives the
+ * brightness of any rectangle of the image with four lookups, whatever the size of the rectangle.
+ */
+public class BrightnessIndex {
+    private final Image image;  // The indexed image.
+    private final int width;    // Width of the indexed image.
+    private final int height;   // Height of the indexed image.
+    // sums[(i * (width + 1)) + j] holds the sum of scaled grey levels of the pixels above row i and
+    // left of column j.
+    private final long[] sums;
+
+    /**
+     * Constructor to build the index of an image.
+     *
+     * @param image The image to index.
+     */
+    public BrightnessIndex(Image image) {
+        this.image = image;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        int rowLength = width + 1;
+        RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.INDEX);
+        this.sums = new long[(height + 1) * rowLength];
+        // Accumulate row by row: each entry is the entry above it plus the running sum of its row.
+        int[] rowLuma = new int[width];
+        for (int i = 0; i < height; ++i) {
+            image.getScaledLumaRow(i, rowLuma);
+            long rowSum = 0;
+            for (int j = 0; j < width; ++j) {
+                rowSum += rowLuma[j];
+                sums[(i + 1) * rowLength + j + 1] = sums[i * rowLength + j + 1] + rowSum;
+            }
+        }
+        RenderMetrics.stop(timer);
+    }
+
+    /**
+     * Getter method for the indexed image.
+     *
+     * @return the indexed image.
+     */
+    public Image getImage() {
+        return image;
+    }
+
+    /**
+     * Get the brightness of a rectangle of the image. The rectangle may extend beyond the image, in
+     * which case the pixels outside the image count as white, as in a padded image.
+     *
+     * @param row    Row of the top-left pixel of the rectangle, may be negative.
+     * @param col    Column of the top-left pixel of the rectangle, may be negative.
+     * @param height Height of the rectangle.
+     * @param width  Width of the rectangle.
+     * @return The brightness of the rectangle, between 0 and 1.
+     */
+    public double getRegionBrightness(int row, int col, int height, int width) {
+        long area = (long) height * width;
+        return (double) getRegionSum(row, col, height, width) / (area * ImageProcessing.MAX_SCALED_LUMA);
+    }
+
+    /**
+     * Get the exact sum of the scaled grey levels of a rectangle of the image, the pixels outside the
+     * image counting as white.
+     *
+     * @param row    Row of the top-left pixel of the rectangle, may be negative.
+     * @param col    Column of the top-left pixel of the rectangle, may be negative.
+     * @param height Height of the rectangle.
+     * @param width  Width of the rectangle.
+     * @return The sum, between 0 and height * width * ImageProcessing.MAX_SCALED_LUMA.
+     */
+    long getRegionSum(int row, int col, int height, int width) {
+        long area = (long) height * width;
+        // Clip the rectangle to the image.
+        int top = Math.max(row, 0);
+        int left = Math.max(col, 0);
+        int bottom = Math.min(row + height, this.height);
+        int right = Math.min(col + width, this.width);
+        long insideSum = 0;
+        long insideArea = 0;
+        if (top < bottom && left < right) {
+            int rowLength = this.width + 1;
+            insideSum = sums[bottom * rowLength + right] - sums[top * rowLength + right] -
+                    sums[bottom * rowLength + left] + sums[top * rowLength + left];
+            insideArea = (long) (bottom - top) * (right - left);
+        }
+        // Pixels outside the image are white padding.
+        return insideSum + (area - insideArea) * ImageProcessing.MAX_SCALED_LUMA;
+    }
+}
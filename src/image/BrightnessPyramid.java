@@ -0,0 +1,153 @@
+package image;
+
+import metrics.RenderMetrics;
+
+import java.util.HashMap;
+
+/**
+ * A pyramid of the brightness of the sub-images of the padded version of an image, one level per
+ * number of sub-images in a row. The sub-images of a power of two number in a row are exactly the
+ * 2x2 blocks of the sub-images of twice that number, so a level is built from any finer level already
+ * built by summing blocks, and only the first level asked for is measured with the brightness index.
+ * Levels hold exact sums of scaled grey levels, so the brightness is the same whichever way a level
+ * was built, and the same as ImageProcessing.getSubImagesBrightness gives.
+ */
+public class BrightnessPyramid {
+    // Largest number of sub-images of a level kept in the pyramid, bounding its memory to 32 MiB.
+    private static final int MAX_KEPT_LEVEL_SIZE = 1 << 22;
+
+    private final BrightnessIndex index;  // Brightness index of the image, for levels with no finer level.
+    private final int paddedWidth;        // Width of the padded image.
+    private final int paddedHeight;       // Height of the padded image.
+    private final int paddingTop;         // Number of white rows above the image.
+    private final int paddingLeft;        // Number of white columns left of the image.
+    // Sums of the sub-images of each level, row after row, by the number of sub-images in a row.
+    private final HashMap<Integer, long[]> levels = new HashMap<>();
+
+    /**
+     * Constructor of an empty pyramid of an indexed image. Levels are built when first asked for.
+     *
+     * @param index The brightness index of the image.
+     */
+    public BrightnessPyramid(BrightnessIndex index) {
+        this.index = index;
+        Image image = index.getImage();
+        this.paddedWidth = ImageProcessing.getClosestPowerOfTwo(image.getWidth());
+        this.paddedHeight = ImageProcessing.getClosestPowerOfTwo(image.getHeight());
+        this.paddingTop = (paddedHeight - image.getHeight()) / 2;
+        this.paddingLeft = (paddedWidth - image.getWidth()) / 2;
+    }
+
+    /**
+     * Getter method for the brightness index the pyramid is built from.
+     *
+     * @return the brightness index of the image.
+     */
+    public BrightnessIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the brightness of every sub-image of the padded image, as
+     * ImageProcessing.getSubImagesBrightness does.
+     *
+     * @param numSubImagesInRow The number of sub-images in each row.
+     * @return A new matrix of the brightness of each sub-image.
+     */
+    public synchronized double[][] getSubImagesBrightness(int numSubImagesInRow) {
+        if (!isPyramidLevel(numSubImagesInRow)) {
+            // Sub-images that do not divide the padded width are not blocks of finer sub-images.
+            return ImageProcessing.getSubImagesBrightness(index, numSubImagesInRow);
+        }
+        RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.BRIGHTNESS);
+        long[] sums = getLevel(numSubImagesInRow);
+        int subImageSize = paddedWidth / numSubImagesInRow;
+        long maxSum = (long) subImageSize * subImageSize * ImageProcessing.MAX_SCALED_LUMA;
+        double[][] brightness = new double[sums.length / numSubImagesInRow][numSubImagesInRow];
+        for (int i = 0; i < brightness.length; ++i) {
+            for (int j = 0; j < numSubImagesInRow; ++j) {
+                brightness[i][j] = (double) sums[i * numSubImagesInRow + j] / maxSum;
+            }
+        }
+        RenderMetrics.stop(timer);
+        return brightness;
+    }
+
+    /**
+     * Check whether a number of sub-images in a row has a level in the pyramid.
+     */
+    private boolean isPyramidLevel(int numSubImagesInRow) {
+        return numSubImagesInRow > 0 && numSubImagesInRow <= paddedWidth &&
+                Integer.bitCount(numSubImagesInRow) == 1;
+    }
+
+    /**
+     * Get the sums of a level, built from the closest finer level if there is one, or measured with the
+     * index otherwise. The levels between them are built and kept on the way.
+     */
+    private long[] getLevel(int numSubImagesInRow) {
+        long[] level = levels.get(numSubImagesInRow);
+        if (level != null) {
+            return level;
+        }
+        int finer = numSubImagesInRow;
+        do {
+            finer <<= 1;
+        } while (finer <= paddedWidth && !levels.containsKey(finer));
+        if (finer > paddedWidth) {
+            level = measureLevel(numSubImagesInRow);
+        } else {
+            level = levels.get(finer);
+            for (int numInRow = finer >> 1; numInRow >= numSubImagesInRow; numInRow >>= 1) {
+                level = reduceLevel(level, numInRow);
+                keepLevel(numInRow, level);
+            }
+        }
+        keepLevel(numSubImagesInRow, level);
+        return level;
+    }
+
+    /**
+     * Measure the sums of the sub-images of a level with the brightness index.
+     */
+    private long[] measureLevel(int numSubImagesInRow) {
+        int subImageSize = paddedWidth / numSubImagesInRow;
+        int numRows = paddedHeight / subImageSize;
+        long[] level = new long[numRows * numSubImagesInRow];
+        for (int i = 0; i < numRows; ++i) {
+            for (int j = 0; j < numSubImagesInRow; ++j) {
+                // Position of the sub-image relative to the unpadded image.
+                level[i * numSubImagesInRow + j] = index.getRegionSum(i * subImageSize - paddingTop,
+                        j * subImageSize - paddingLeft, subImageSize, subImageSize);
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Build a level from the level with twice as many sub-images in a row, by summing 2x2 blocks.
+     */
+    private static long[] reduceLevel(long[] finerLevel, int numSubImagesInRow) {
+        int finerNumInRow = numSubImagesInRow << 1;
+        int numRows = finerLevel.length / finerNumInRow / 2;
+        long[] level = new long[numRows * numSubImagesInRow];
+        for (int i = 0; i < numRows; ++i) {
+            int top = 2 * i * finerNumInRow;
+            int bottom = top + finerNumInRow;
+            for (int j = 0; j < numSubImagesInRow; ++j) {
+                level[i * numSubImagesInRow + j] = finerLevel[top + 2 * j] + finerLevel[top + 2 * j + 1] +
+                        finerLevel[bottom + 2 * j] + finerLevel[bottom + 2 * j + 1];
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Keep a level in the pyramid unless it is too large.
+     */
+    private void keepLevel(int numSubImagesInRow, long[] level) {
+        if (level.length <= MAX_KEPT_LEVEL_SIZE) {
+            levels.put(numSubImagesInRow, level);
+        }
+    }
+}
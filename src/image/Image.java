@@ -1,20 +1,62 @@
 package image;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
 
 /**
- * A package-private class of the package image that represents an image as a 2D Color array.
+ * A package-private class of the package image that represents an image as a packed array of RGB
+ * values, stored row after row. An image may also be a view of a rectangle of another image, sharing
+ * its pixels without copying them. A view may extend beyond the viewed pixels, in which case the
+ * pixels outside them are white.
  *
  * @see Color.
  * @author Dan Nirel.
  */
 public class Image {
-    // Array to hold pixel colors.
-    private final Color[][] pixelArray;
+    // Mask of the RGB bits in a packed pixel.
+    private static final int RGB_MASK = 0xFFFFFF;
+    // Shifts and mask of the color channels in a packed pixel, also used by the row kernels.
+    static final int RED_SHIFT = 16;
+    static final int GREEN_SHIFT = 8;
+    static final int CHANNEL_MASK = 0xFF;
+    // Packed value of a white pixel, used outside the viewed pixels.
+    private static final int WHITE_RGB = 0xFFFFFF;
+    // Number of pixels converted by each getRGB call when the image layout has no fast path.
+    private static final int PIXELS_PER_BATCH = 1 << 16;
+    // Offsets of the red, green and blue bytes of a TYPE_3BYTE_BGR pixel.
+    private static final int BGR_RED_OFFSET = 2;
+    private static final int BGR_GREEN_OFFSET = 1;
+    private static final int BGR_BLUE_OFFSET = 0;
+    private static final int BGR_PIXEL_STRIDE = 3;
+    // Fewest pixels kept along each side of a sub-image when decoding is subsampled.
+    private static final int MIN_PIXELS_PER_TILE_SIDE = 8;
+    // Array to hold packed pixel colors, row after row.
+    private final int[] pixels;
+    // Width of the whole pixels array.
+    private final int stride;
+    // Rectangle of the pixels array viewed by this image, as rows [viewedTop, viewedBottom) and columns
+    // [viewedLeft, viewedRight). Pixels of the image outside it are white, even where the array goes on.
+    private final int viewedTop;
+    private final int viewedLeft;
+    private final int viewedBottom;
+    private final int viewedRight;
+    // Position in the pixels array of the top-left pixel of this image, may be negative for padding.
+    private final int originRow;
+    private final int originCol;
     // Dimensions of the image.
     private final int width;
     private final int height;
@@ -26,17 +68,194 @@ public class Image {
      * @throws IOException
      */
     public Image(String filename) throws IOException {
-        BufferedImage im = ImageIO.read(new File(filename));
+        this(requireDecoded(ImageIO.read(new File(filename))));
+    }
+
+    /**
+     * Constructor to create an Image object from an encoded image read from a stream.
+     *
+     * @param input stream of the encoded image, left open.
+     * @throws IOException if the stream cannot be read or decoded.
+     */
+    public Image(InputStream input) throws IOException {
+        this(requireDecoded(ImageIO.read(input)));
+    }
+
+    /**
+     * Constructor to create an Image object from a file, decoding only the detail needed to render it
+     * with a given number of characters in each row. Every sub-image keeps at least
+     * MIN_PIXELS_PER_TILE_SIDE pixels along each side, so the brightness of the sub-images stays accurate
+     * while large images are decoded much faster and into much less memory.
+     *
+     * @param filename of the image to load.
+     * @param numCharsInRow number of characters in each row the image will be rendered with.
+     * @throws IOException if the file cannot be read or decoded.
+     */
+    public Image(String filename, int numCharsInRow) throws IOException {
+        this(decodeSubsampled(ImageIO.createImageInputStream(new File(filename)), numCharsInRow));
+    }
+
+    /**
+     * Constructor to create an Image object from an encoded image read from a stream, decoding only the
+     * detail needed to render it with a given number of characters in each row.
+     *
+     * @param input stream of the encoded image, left open.
+     * @param numCharsInRow number of characters in each row the image will be rendered with.
+     * @throws IOException if the stream cannot be read or decoded.
+     */
+    public Image(InputStream input, int numCharsInRow) throws IOException {
+        this(decodeSubsampled(ImageIO.createImageInputStream(input), numCharsInRow));
+    }
+
+    /**
+     * Constructor to create an Image object from a decoded image.
+     * The pixels of the common TYPE_INT_RGB, TYPE_INT_ARGB and TYPE_3BYTE_BGR layouts are copied
+     * straight from the backing array of the raster. Other layouts are converted by getRGB, a batch of
+     * rows at a time.
+     *
+     * @param im the decoded image, copied into the pixels array.
+     */
+    public Image(BufferedImage im) {
         width = im.getWidth();
         height = im.getHeight();
 
-        // Populate the pixelArray with colors from the BufferedImage.
-        pixelArray = new Color[height][width];
-        for (int i = 0; i < height; i++) {
+        // Populate the pixels array with colors from the BufferedImage.
+        stride = width;
+        viewedTop = 0;
+        viewedLeft = 0;
+        viewedBottom = height;
+        viewedRight = width;
+        originRow = 0;
+        originCol = 0;
+        pixels = new int[width * height];
+        if (!copyIntPixels(im) && !copyBgrPixels(im)) {
+            copyConvertedPixels(im);
+        }
+    }
+
+    /**
+     * Copy the pixels of an image stored as one int per pixel, with the RGB bits in their usual place.
+     *
+     * @return false if the image has another layout, and nothing was copied.
+     */
+    private boolean copyIntPixels(BufferedImage im) {
+        int type = im.getType();
+        Raster raster = im.getRaster();
+        if ((type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) ||
+                !(raster.getDataBuffer() instanceof DataBufferInt) ||
+                !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return false;
+        }
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+        int[] data = dataBuffer.getData();
+        int scanlineStride = sampleModel.getScanlineStride();
+        // Position of the top-left pixel, for an image that is a part of a larger raster.
+        int rowStart = dataBuffer.getOffset() - raster.getSampleModelTranslateY() * scanlineStride -
+                raster.getSampleModelTranslateX();
+        for (int i = 0; i < height; i++, rowStart += scanlineStride) {
             for (int j = 0; j < width; j++) {
-                pixelArray[i][j] = new Color(im.getRGB(j, i));
+                pixels[i * width + j] = data[rowStart + j] & RGB_MASK;
             }
         }
+        return true;
+    }
+
+    /**
+     * Copy the pixels of an image stored as blue, green and red bytes, as most JPEG images are decoded.
+     *
+     * @return false if the image has another layout, and nothing was copied.
+     */
+    private boolean copyBgrPixels(BufferedImage im) {
+        Raster raster = im.getRaster();
+        if (im.getType() != BufferedImage.TYPE_3BYTE_BGR ||
+                !(raster.getDataBuffer() instanceof DataBufferByte) ||
+                !(raster.getSampleModel() instanceof ComponentSampleModel)) {
+            return false;
+        }
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        if (sampleModel.getPixelStride() != BGR_PIXEL_STRIDE || bandOffsets[0] != BGR_RED_OFFSET ||
+                bandOffsets[1] != BGR_GREEN_OFFSET || bandOffsets[2] != BGR_BLUE_OFFSET) {
+            return false;
+        }
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = dataBuffer.getData();
+        int scanlineStride = sampleModel.getScanlineStride();
+        // Position of the top-left pixel, for an image that is a part of a larger raster.
+        int rowStart = dataBuffer.getOffset() - raster.getSampleModelTranslateY() * scanlineStride -
+                raster.getSampleModelTranslateX() * BGR_PIXEL_STRIDE;
+        for (int i = 0; i < height; i++, rowStart += scanlineStride) {
+            int index = rowStart;
+            for (int j = 0; j < width; j++, index += BGR_PIXEL_STRIDE) {
+                pixels[i * width + j] = (data[index + BGR_RED_OFFSET] & CHANNEL_MASK) << RED_SHIFT |
+                        (data[index + BGR_GREEN_OFFSET] & CHANNEL_MASK) << GREEN_SHIFT |
+                        (data[index + BGR_BLUE_OFFSET] & CHANNEL_MASK);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the pixels of an image of any layout through its color model, a batch of rows at a time.
+     */
+    private void copyConvertedPixels(BufferedImage im) {
+        int rowsPerBatch = Math.max(1, PIXELS_PER_BATCH / Math.max(1, width));
+        for (int i = 0; i < height; i += rowsPerBatch) {
+            int rows = Math.min(rowsPerBatch, height - i);
+            im.getRGB(0, i, width, rows, pixels, i * width, width);
+        }
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] &= RGB_MASK;
+        }
+    }
+
+    /**
+     * Method to decode an image, reading only every n-th pixel of every n-th row. The factor n is the
+     * largest power of two leaving at least MIN_PIXELS_PER_TILE_SIDE pixels along each side of a
+     * sub-image, so that the padded size of the image is divided by the same factor.
+     *
+     * @param input stream of the encoded image, closed when done.
+     * @param numCharsInRow number of characters in each row the image will be rendered with.
+     * @return the decoded image.
+     * @throws IOException if no reader decoded the image.
+     */
+    private static BufferedImage decodeSubsampled(ImageInputStream input, int numCharsInRow)
+            throws IOException {
+        if (input == null) {
+            throw new IOException("Cannot open the image");
+        }
+        try (input) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int subsampling = Integer.highestOneBit(Math.max(1,
+                        reader.getWidth(0) / Math.max(1, numCharsInRow * MIN_PIXELS_PER_TILE_SIDE)));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return requireDecoded(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Method to check that ImageIO found a reader for an image.
+     *
+     * @param im the result of ImageIO.read.
+     * @return the decoded image.
+     * @throws IOException if no reader decoded the image.
+     */
+    private static BufferedImage requireDecoded(BufferedImage im) throws IOException {
+        if (im == null) {
+            throw new IOException("Unsupported image format");
+        }
+        return im;
     }
 
     /**
@@ -47,7 +266,60 @@ public class Image {
      * @param height of the image.
      */
     public Image(Color[][] pixelArray, int width, int height) {
-        this.pixelArray = pixelArray;
+        this.width = width;
+        this.height = height;
+        this.stride = width;
+        this.viewedTop = 0;
+        this.viewedLeft = 0;
+        this.viewedBottom = height;
+        this.viewedRight = width;
+        this.originRow = 0;
+        this.originCol = 0;
+        this.pixels = new int[width * height];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                pixels[i * width + j] = pixelArray[i][j].getRGB() & RGB_MASK;
+            }
+        }
+    }
+
+    /**
+     * Constructor to create an Image object from a packed RGB array, stored row after row.
+     * The array is used as is and is not copied.
+     *
+     * @param pixels packed RGB values of the image, of length width * height.
+     * @param width of the image.
+     * @param height of the image.
+     */
+    public Image(int[] pixels, int width, int height) {
+        this(pixels, width, 0, 0, height, width, 0, 0, width, height);
+    }
+
+    /**
+     * Constructor to create a view of a rectangle of a packed RGB array. Parts of the rectangle
+     * outside the viewed rectangle of the array are white.
+     *
+     * @param pixels packed RGB values, shared with the viewed image.
+     * @param stride width of the whole pixels array.
+     * @param viewedTop first row of the array that may be seen through the view.
+     * @param viewedLeft first column of the array that may be seen through the view.
+     * @param viewedBottom row of the array after the last one that may be seen through the view.
+     * @param viewedRight column of the array after the last one that may be seen through the view.
+     * @param originRow row in the pixels array of the top-left pixel of the view.
+     * @param originCol column in the pixels array of the top-left pixel of the view.
+     * @param width of the view.
+     * @param height of the view.
+     */
+    private Image(int[] pixels, int stride, int viewedTop, int viewedLeft, int viewedBottom, int viewedRight,
+                  int originRow, int originCol, int width, int height) {
+        this.pixels = pixels;
+        this.stride = stride;
+        this.viewedTop = viewedTop;
+        this.viewedLeft = viewedLeft;
+        this.viewedBottom = viewedBottom;
+        this.viewedRight = viewedRight;
+        this.originRow = originRow;
+        this.originCol = originCol;
         this.width = width;
         this.height = height;
     }
@@ -78,7 +350,185 @@ public class Image {
      * @return color of the pixel.
      */
     public Color getPixel(int x, int y) {
-        return pixelArray[x][y];
+        return new Color(getRgb(x, y));
+    }
+
+    /**
+     * Method to get the packed RGB value of a pixel at a given position, without allocating.
+     *
+     * @param x row of pixel.
+     * @param y column of pixel.
+     * @return the pixel as 0xRRGGBB.
+     */
+    public int getRgb(int x, int y) {
+        int row = originRow + x;
+        int col = originCol + y;
+        if (row < viewedTop || row >= viewedBottom || col < viewedLeft || col >= viewedRight) {
+            return WHITE_RGB; // Padding pixel.
+        }
+        return pixels[row * stride + col];
+    }
+
+    /**
+     * Method to get a view of a rectangle of this image. The view shares the pixels of this image,
+     * so creating it does not copy anything. Pixels of the rectangle that are white in this image, such
+     * as its padding, stay white in the view.
+     *
+     * @param x row of the top-left pixel of the rectangle.
+     * @param y column of the top-left pixel of the rectangle.
+     * @param width of the rectangle.
+     * @param height of the rectangle.
+     * @return an image viewing the rectangle.
+     */
+    public Image getSubImage(int x, int y, int width, int height) {
+        assert x >= 0 && y >= 0 && x + height <= this.height && y + width <= this.width;
+        int row = originRow + x;
+        int col = originCol + y;
+        return new Image(pixels, stride, Math.max(viewedTop, row), Math.max(viewedLeft, col),
+                Math.min(viewedBottom, row + height), Math.min(viewedRight, col + width), row, col,
+                width, height);
+    }
+
+    /**
+     * Method to get a view of this image surrounded by white padding. The padding is not stored,
+     * it is produced on the fly by getRgb. If this image is a view, the pixels around it are padding
+     * too, not the pixels of the viewed image.
+     *
+     * @param paddingTop number of white rows above the image.
+     * @param paddingLeft number of white columns left of the image.
+     * @param width of the padded view.
+     * @param height of the padded view.
+     * @return an image viewing this image with padding around it.
+     */
+    Image getPaddedView(int paddingTop, int paddingLeft, int width, int height) {
+        return new Image(pixels, stride, viewedTop, viewedLeft, viewedBottom, viewedRight,
+                originRow - paddingTop, originCol - paddingLeft, width, height);
+    }
+
+    /**
+     * Method to get the scaled grey levels of a row of the image, reading its packed pixels in order.
+     * Pixels outside the viewed pixels are white.
+     *
+     * @param x row of the image.
+     * @param luma array to store the scaled grey level of each pixel of the row in, of at least width
+     *             elements.
+     */
+    void getScaledLumaRow(int x, int[] luma) {
+        int row = originRow + x;
+        int insideStart = getViewedStart(row, originCol, width);
+        int insideEnd = getViewedEnd(row, originCol, width);
+        Arrays.fill(luma, 0, insideStart, ImageProcessing.MAX_SCALED_LUMA);
+        ImageProcessing.calculateScaledLumaRow(pixels, row * stride + originCol + insideStart,
+                luma, insideStart, insideEnd - insideStart);
+        Arrays.fill(luma, insideEnd, width, ImageProcessing.MAX_SCALED_LUMA);
+    }
+
+    /**
+     * Method to sum the scaled grey levels of all the pixels of the image, reading its packed pixels row
+     * after row. Pixels outside the viewed pixels are white.
+     *
+     * @return the exact sum.
+     */
+    long sumScaledLuma() {
+        return sumScaledLuma(0, 0, height, width);
+    }
+
+    /**
+     * Method to sum the scaled grey levels of the pixels of a rectangle, reading its packed pixels row
+     * after row. The rectangle may extend beyond the image; pixels outside the viewed pixels are white.
+     *
+     * @param x row of the top-left pixel of the rectangle.
+     * @param y column of the top-left pixel of the rectangle.
+     * @param regionHeight number of rows of the rectangle.
+     * @param regionWidth number of columns of the rectangle.
+     * @return the exact sum.
+     */
+    long sumScaledLuma(int x, int y, int regionHeight, int regionWidth) {
+        long sum = 0;
+        int col = originCol + y;
+        for (int i = 0; i < regionHeight; i++) {
+            int row = originRow + x + i;
+            int insideStart = getViewedStart(row, col, regionWidth);
+            int inside = getViewedEnd(row, col, regionWidth) - insideStart;
+            sum += (long) (regionWidth - inside) * ImageProcessing.MAX_SCALED_LUMA;
+            if (inside > 0) {
+                sum += ImageProcessing.sumScaledLumaRow(pixels, row * stride + col + insideStart, inside);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Method to get the offset of the first viewed pixel of a span of a row of the pixels array. The
+     * pixels of the span before it are white.
+     *
+     * @param row row of the pixels array.
+     * @param col column of the pixels array of the first pixel of the span.
+     * @param length number of pixels of the span.
+     * @return the offset in the span, between 0 and length.
+     */
+    private int getViewedStart(int row, int col, int length) {
+        if (row < viewedTop || row >= viewedBottom) {
+            return 0; // Padding row.
+        }
+        return Math.min(length, Math.max(0, viewedLeft - col));
+    }
+
+    /**
+     * Method to get the offset after the last viewed pixel of a span of a row of the pixels array. The
+     * pixels of the span from it on are white.
+     *
+     * @param row row of the pixels array.
+     * @param col column of the pixels array of the first pixel of the span.
+     * @param length number of pixels of the span.
+     * @return the offset in the span, between getViewedStart and length.
+     */
+    private int getViewedEnd(int row, int col, int length) {
+        if (row < viewedTop || row >= viewedBottom) {
+            return 0; // Padding row.
+        }
+        return Math.max(getViewedStart(row, col, length), Math.min(length, viewedRight - col));
+    }
+
+    /**
+     * Method to get the grey level (luminance) of a pixel at a given position.
+     *
+     * @param x row of pixel.
+     * @param y column of pixel.
+     * @return grey level of the pixel, between 0 and 255.
+     */
+    public double getLuma(int x, int y) {
+        return ImageProcessing.calculateLuma(getRgb(x, y));
+    }
+
+    /**
+     * Method to get the red channel of a packed RGB value.
+     *
+     * @param rgb packed pixel.
+     * @return red channel, between 0 and 255.
+     */
+    static int red(int rgb) {
+        return (rgb >> RED_SHIFT) & CHANNEL_MASK;
+    }
+
+    /**
+     * Method to get the green channel of a packed RGB value.
+     *
+     * @param rgb packed pixel.
+     * @return green channel, between 0 and 255.
+     */
+    static int green(int rgb) {
+        return (rgb >> GREEN_SHIFT) & CHANNEL_MASK;
+    }
+
+    /**
+     * Method to get the blue channel of a packed RGB value.
+     *
+     * @param rgb packed pixel.
+     * @return blue channel, between 0 and 255.
+     */
+    static int blue(int rgb) {
+        return rgb & CHANNEL_MASK;
     }
 
     /**
@@ -87,14 +537,14 @@ public class Image {
      * @param fileName name of file to save.
      */
     public void saveImage(String fileName) {
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
-                BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
+        // Initialize BufferedImage and copy the packed pixels into it row by row.
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int x = 0; x < height; x++) {
+            for (int y = 0; y < width; y++) {
+                row[y] = getRgb(x, y);
             }
+            bufferedImage.setRGB(0, x, width, 1, row, 0, width);
         }
         // Save the BufferedImage to a file.
         File outputfile = new File(fileName + ".jpeg");
@@ -1,6 +1,6 @@
 package image;
 
-import java.awt.*;
+import java.util.Arrays;
 
 /**
  * A class for image processing operations.
@@ -10,10 +10,24 @@ public class ImageProcessing {
     private static final double RED_FACTOR = 0.2126;
     private static final double BLUE_FACTOR = 0.0722;
     private static final double GREEN_FACTOR = 0.7152;
+    private static final double HALF_BRIGHTNESS = 0.5;
+    private static final int LOG_BITS_IN_WORD = 6; // 64 bits in a long.
+    // The grey level factors scaled to integers, so that grey levels can be summed exactly.
+    private static final int RED_SCALED_FACTOR = 2126;
+    private static final int BLUE_SCALED_FACTOR = 722;
+    private static final int GREEN_SCALED_FACTOR = 7152;
+    // Number of pixels whose channels are summed in an int: 2^23 * MAX_RGB < 2^31.
+    private static final int PIXELS_PER_INT_SUM = 1 << 23;
+    /**
+     * Scaled grey level of a white pixel.
+     */
+    static final int MAX_SCALED_LUMA = MAX_RGB * (RED_SCALED_FACTOR + GREEN_SCALED_FACTOR +
+            BLUE_SCALED_FACTOR);
 
 
     /**
-     * Get a padded version of the image with dimensions as the closest power of two.
+     * Get a padded version of the image with dimensions as the closest power of two. The padded image
+     * is a view of the given image, so no pixel is copied.
      *
      * @param image The input image.
      * @return The padded image.
@@ -25,21 +39,8 @@ public class ImageProcessing {
         int heightDiff = newImageHeight - image.getHeight();
         int widthDiff = newImageWidth - image.getWidth();
 
-        Color[][] pixelArray = new Color[newImageHeight][newImageWidth];
-        // Pad the image with white pixels.
-        for (int i = 0; i < newImageHeight; i++) {
-            for (int j = 0; j < newImageWidth; j++) {
-                if ((heightDiff / 2 <= i && i < newImageHeight - heightDiff / 2) &&
-                        (widthDiff / 2 <= j && j < newImageWidth - widthDiff / 2)) {
-                    pixelArray[i][j] = image.getPixel(i - heightDiff / 2, j - widthDiff / 2);
-                } else {
-                    pixelArray[i][j] = new Color(ImageProcessing.MAX_RGB, ImageProcessing.MAX_RGB,
-                            ImageProcessing.MAX_RGB); // Set as white.
-                }
-            }
-        }
-
-        return new Image(pixelArray, newImageWidth, newImageHeight);
+        // Pad the image with white pixels, produced on the fly by the view.
+        return image.getPaddedView(heightDiff / 2, widthDiff / 2, newImageWidth, newImageHeight);
     }
 
     /**
@@ -48,7 +49,7 @@ public class ImageProcessing {
      * @param num the number to get the closest power of two from.
      * @return the closest power of two that is bigger than num.
      */
-    private static int getClosestPowerOfTwo(int num) {
+    static int getClosestPowerOfTwo(int num) {
         boolean isNumPowerOfTwo = (num & (num - 1)) == 0;
         if (isNumPowerOfTwo) {
             return num;
@@ -57,7 +58,8 @@ public class ImageProcessing {
     }
 
     /**
-     * Get an array of sub-images from the given image.
+     * Get an array of sub-images from the given image. The sub-images are views sharing the pixels of
+     * the given image, so no pixel is copied.
      *
      * @param image             The input image.
      * @param numSubImagesInRow The number of sub-images in each row.
@@ -67,16 +69,11 @@ public class ImageProcessing {
         int subImageSize = image.getWidth() / numSubImagesInRow;
         int numSubImagesInCol = image.getHeight() / subImageSize;
         Image[][] subImages = new Image[numSubImagesInCol][numSubImagesInRow];
-        // Divide the image into sub-images.
+        // Divide the image into sub-image views.
         for (int i = 0; i < numSubImagesInCol; ++i) {
             for (int j = 0; j < numSubImagesInRow; ++j) {
-                Color[][] pixelArray = new Color[subImageSize][subImageSize];
-                for (int x = 0; x < subImageSize; ++x) {
-                    for (int y = 0; y < subImageSize; ++y) {
-                        pixelArray[x][y] = image.getPixel(i * subImageSize + x, j * subImageSize + y);
-                    }
-                }
-                subImages[i][j] = new Image(pixelArray, subImageSize, subImageSize);
+                subImages[i][j] = image.getSubImage(i * subImageSize, j * subImageSize,
+                        subImageSize, subImageSize);
             }
         }
         return subImages;
@@ -84,21 +81,200 @@ public class ImageProcessing {
 
     /**
      * Calculate the brightness of the given image.
+     * The grey levels are summed exactly in fixed point, row after row of the packed pixels, so the
+     * result differs from the mean of calculateLuma over the pixels only by the rounding of that double
+     * sum: by less than 1e-9 for any image.
      *
      * @param image The input image.
      * @return The brightness of the image.
      */
     public static double calculateImageBrightness(Image image) {
-        double greySum = 0;
-        // Calculate brightness by converting pixels to grayscale and summing them up.
-        for (int i = 0; i < image.getWidth(); ++i) {
-            for (int j = 0; j < image.getHeight(); ++j) {
-                Color color = image.getPixel(j, i);
-                double greyPixel = color.getRed() * RED_FACTOR + color.getGreen() * GREEN_FACTOR +
-                        color.getBlue() * BLUE_FACTOR;
-                greySum += greyPixel;
+        double maxSum = (double) image.getWidth() * image.getHeight() * MAX_SCALED_LUMA;
+        return image.sumScaledLuma() / maxSum;
+    }
+
+    /**
+     * Calculate the scaled grey level of each pixel of a row of packed pixels, exact integers scaled by
+     * the grey level factors.
+     * The loop has no branches and only int arithmetic on consecutive elements, so the JIT compiles it
+     * to SIMD instructions.
+     *
+     * @param pixels The packed RGB pixels.
+     * @param from   The index of the first pixel of the row.
+     * @param luma     The array to store the scaled grey level of each pixel in.
+     * @param lumaFrom The index in luma of the first pixel of the row.
+     * @param length   The number of pixels of the row.
+     */
+    static void calculateScaledLumaRow(int[] pixels, int from, int[] luma, int lumaFrom, int length) {
+        for (int i = 0; i < length; ++i) {
+            int rgb = pixels[from + i];
+            luma[lumaFrom + i] = ((rgb >> Image.RED_SHIFT) & Image.CHANNEL_MASK) * RED_SCALED_FACTOR +
+                    ((rgb >> Image.GREEN_SHIFT) & Image.CHANNEL_MASK) * GREEN_SCALED_FACTOR +
+                    (rgb & Image.CHANNEL_MASK) * BLUE_SCALED_FACTOR;
+        }
+    }
+
+    /**
+     * Sum the scaled grey levels of a row of packed pixels. Each channel is summed on its own in an int,
+     * which the JIT vectorizes, and the grey level factors are applied once to the channel sums, so the
+     * sum is exact. Rows longer than PIXELS_PER_INT_SUM are summed in blocks, so no int overflows.
+     *
+     * @param pixels The packed RGB pixels.
+     * @param from   The index of the first pixel of the row.
+     * @param length The number of pixels of the row.
+     * @return The sum of the scaled grey levels of the pixels.
+     */
+    static long sumScaledLumaRow(int[] pixels, int from, int length) {
+        long sum = 0;
+        int end = from + length;
+        for (int blockStart = from; blockStart < end; blockStart += PIXELS_PER_INT_SUM) {
+            int blockEnd = Math.min(end, blockStart + PIXELS_PER_INT_SUM);
+            int redSum = 0;
+            int greenSum = 0;
+            int blueSum = 0;
+            for (int i = blockStart; i < blockEnd; ++i) {
+                int rgb = pixels[i];
+                redSum += (rgb >> Image.RED_SHIFT) & Image.CHANNEL_MASK;
+                greenSum += (rgb >> Image.GREEN_SHIFT) & Image.CHANNEL_MASK;
+                blueSum += rgb & Image.CHANNEL_MASK;
+            }
+            sum += (long) redSum * RED_SCALED_FACTOR + (long) greenSum * GREEN_SCALED_FACTOR +
+                    (long) blueSum * BLUE_SCALED_FACTOR;
+        }
+        return sum;
+    }
+
+    /**
+     * Calculate the grey level (luminance) of a packed RGB pixel.
+     *
+     * @param rgb The pixel as 0xRRGGBB.
+     * @return The grey level of the pixel, between 0 and 255.
+     */
+    public static double calculateLuma(int rgb) {
+        return Image.red(rgb) * RED_FACTOR + Image.green(rgb) * GREEN_FACTOR +
+                Image.blue(rgb) * BLUE_FACTOR;
+    }
+
+    /**
+     * Get the number of rows of sub-images of the padded version of an image.
+     *
+     * @param image             The input image, before padding.
+     * @param numSubImagesInRow The number of sub-images in each row.
+     * @return The number of sub-images in each column of the padded image.
+     */
+    public static int getNumSubImagesInCol(Image image, int numSubImagesInRow) {
+        int subImageSize = getClosestPowerOfTwo(image.getWidth()) / numSubImagesInRow;
+        return getClosestPowerOfTwo(image.getHeight()) / subImageSize;
+    }
+
+    /**
+     * Get the brightness of every sub-image of the padded version of an indexed image, using the index
+     * instead of reading the pixels. The sub-images are the same as getSubImages would give for
+     * getPaddedImage of the indexed image.
+     *
+     * @param index             The brightness index of the input image.
+     * @param numSubImagesInRow The number of sub-images in each row.
+     * @return A matrix of the brightness of each sub-image.
+     */
+    public static double[][] getSubImagesBrightness(BrightnessIndex index, int numSubImagesInRow) {
+        double[][] brightness = new double[getNumSubImagesInCol(index.getImage(), numSubImagesInRow)]
+                [numSubImagesInRow];
+        calculateSubImagesBrightness(index, numSubImagesInRow, brightness, 0, brightness.length);
+        return brightness;
+    }
+
+    /**
+     * Calculate the brightness of some rows of sub-images of the padded version of an indexed image,
+     * as getSubImagesBrightness does. Disjoint row ranges may be calculated concurrently.
+     *
+     * @param index             The brightness index of the input image.
+     * @param numSubImagesInRow The number of sub-images in each row.
+     * @param brightness        The matrix to store the brightness of each sub-image in.
+     * @param fromRow           The first row of sub-images to calculate, inclusive.
+     * @param toRow             The last row of sub-images to calculate, exclusive.
+     */
+    public static void calculateSubImagesBrightness(BrightnessIndex index, int numSubImagesInRow,
+                                                    double[][] brightness, int fromRow, int toRow) {
+        Image image = index.getImage();
+        int paddedWidth = getClosestPowerOfTwo(image.getWidth());
+        int paddedHeight = getClosestPowerOfTwo(image.getHeight());
+        int paddingTop = (paddedHeight - image.getHeight()) / 2;
+        int paddingLeft = (paddedWidth - image.getWidth()) / 2;
+        int subImageSize = paddedWidth / numSubImagesInRow;
+        for (int i = fromRow; i < toRow; ++i) {
+            for (int j = 0; j < numSubImagesInRow; ++j) {
+                // Position of the sub-image relative to the unpadded image.
+                brightness[i][j] = index.getRegionBrightness(i * subImageSize - paddingTop,
+                        j * subImageSize - paddingLeft, subImageSize, subImageSize);
+            }
+        }
+    }
+
+    /**
+     * Calculate the brightness of some rows of sub-images of the padded version of an image by summing
+     * the pixels of each sub-image directly, without a brightness index. This reads every pixel once,
+     * so it is cheaper than building an index when the sub-images are measured only once, as for the
+     * frames of a video. The brightness is the same as calculateSubImagesBrightness with an index gives.
+     *
+     * @param image             The input image, before padding.
+     * @param numSubImagesInRow The number of sub-images in each row.
+     * @param brightness        The matrix to store the brightness of each sub-image in.
+     * @param fromRow           The first row of sub-images to calculate, inclusive.
+     * @param toRow             The last row of sub-images to calculate, exclusive.
+     */
+    public static void calculateSubImagesBrightness(Image image, int numSubImagesInRow,
+                                                    double[][] brightness, int fromRow, int toRow) {
+        int paddedWidth = getClosestPowerOfTwo(image.getWidth());
+        int paddedHeight = getClosestPowerOfTwo(image.getHeight());
+        int paddingTop = (paddedHeight - image.getHeight()) / 2;
+        int paddingLeft = (paddedWidth - image.getWidth()) / 2;
+        int subImageSize = paddedWidth / numSubImagesInRow;
+        long maxSum = (long) subImageSize * subImageSize * MAX_SCALED_LUMA;
+        for (int i = fromRow; i < toRow; ++i) {
+            for (int j = 0; j < numSubImagesInRow; ++j) {
+                // Position of the sub-image relative to the unpadded image.
+                brightness[i][j] = (double) image.sumScaledLuma(i * subImageSize - paddingTop,
+                        j * subImageSize - paddingLeft, subImageSize, subImageSize) / maxSum;
+            }
+        }
+    }
+
+    /**
+     * Sample a sub-image of the padded version of an indexed image on a square grid, as a bitmap of its
+     * bright cells. Each cell is bright if its mean brightness is above half. The cells are measured
+     * with the index, so sampling costs O(gridSize^2) whatever the size of the sub-image. When the
+     * sub-image is smaller than the grid, neighbouring cells sample the same pixels.
+     *
+     * @param index             The brightness index of the input image.
+     * @param numSubImagesInRow The number of sub-images in each row.
+     * @param row               The row of the sub-image.
+     * @param col               The column of the sub-image.
+     * @param gridSize          The number of cells in each row and column of the grid.
+     * @param bits              The bitmap to fill, bit y * gridSize + x of it for the cell (y, x),
+     *                          stored in 64-bit words from the lowest bit.
+     */
+    public static void calculateSubImageBits(BrightnessIndex index, int numSubImagesInRow, int row, int col,
+                                             int gridSize, long[] bits) {
+        Image image = index.getImage();
+        int paddedWidth = getClosestPowerOfTwo(image.getWidth());
+        int paddedHeight = getClosestPowerOfTwo(image.getHeight());
+        int subImageSize = paddedWidth / numSubImagesInRow;
+        // Position of the sub-image relative to the unpadded image.
+        int top = row * subImageSize - (paddedHeight - image.getHeight()) / 2;
+        int left = col * subImageSize - (paddedWidth - image.getWidth()) / 2;
+        Arrays.fill(bits, 0);
+        for (int y = 0; y < gridSize; ++y) {
+            int cellTop = y * subImageSize / gridSize;
+            int cellHeight = Math.max(1, (y + 1) * subImageSize / gridSize - cellTop);
+            for (int x = 0; x < gridSize; ++x) {
+                int cellLeft = x * subImageSize / gridSize;
+                int cellWidth = Math.max(1, (x + 1) * subImageSize / gridSize - cellLeft);
+                if (index.getRegionBrightness(top + cellTop, left + cellLeft, cellHeight, cellWidth) >
+                        HALF_BRIGHTNESS) {
+                    int bit = y * gridSize + x;
+                    bits[bit >>> LOG_BITS_IN_WORD] |= 1L << bit;
+                }
             }
         }
-        return greySum / (image.getWidth() * image.getHeight() * ImageProcessing.MAX_RGB);
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,12 @@
 package image_char_matching;
 
 /**
- * A class representing the brightness of a character, with methods to calculate brightness
- * and update linear brightness based on a given range.
+ * An immutable class representing the brightness of a character. The linear brightness, which depends
+ * on the whole char set, is computed by CharMatcherSnapshot.
  */
 public class CharBrightness implements Comparable<CharBrightness> {
-    private char character;                 // The character associated with this brightness.
-    private double nonLinearBrightness;     // Non-linear brightness of the character.
-    private double linearBrightness;        // Linear brightness of the character.
+    private final char character;               // The character associated with this brightness.
+    private final double nonLinearBrightness;   // Non-linear brightness of the character.
 
     /**
      * Constructor to initialize CharBrightness object with a character.
@@ -15,44 +14,22 @@ public class CharBrightness implements Comparable<CharBrightness> {
      * @param character The character to associate with this brightness.
      */
     public CharBrightness(char character) {
-        this.character = character;
-        // Calculate non-linear brightness.
-        this.nonLinearBrightness = calculateNonLinearBrightness(character);
-        this.linearBrightness = -1;    // Default value until updated.
+        this(character, CharConverter.DEFAULT_FONT_NAME, CharConverter.DEFAULT_PIXEL_RESOLUTION);
     }
 
-
     /**
-     * Method to update linear brightness based on given min and max brightness values.
+     * Constructor to initialize CharBrightness object with a character rendered in a given font.
      *
-     * @param minBrightness
-     * @param maxBrightness
+     * @param character  The character to associate with this brightness.
+     * @param fontName   The font to render the character in.
+     * @param resolution The number of pixels in each row and column of the rendered character.
      */
-    public void updateLinearBrightness(double minBrightness, double maxBrightness) {
-        this.linearBrightness = (this.nonLinearBrightness - minBrightness) / (maxBrightness - minBrightness);
+    public CharBrightness(char character, String fontName, int resolution) {
+        this.character = character;
+        // Get non-linear brightness, rendering the character only if it was never rendered before.
+        this.nonLinearBrightness = CharBrightnessCache.getBrightness(character, fontName, resolution);
     }
 
-    /**
-     * Method to calculate non-linear brightness of a character.
-     *
-     * @param c character to calculate its brightness
-     * @return the non-linear brightness of character c
-     */
-    private double calculateNonLinearBrightness(char c) {
-        boolean[][] arr = CharConverter.convertToBoolArray(c);
-        int numTrue = 0;
-        // Count the number of true values (bright pixels) in the character matrix.
-        for (int i = 0; i < CharConverter.DEFAULT_PIXEL_RESOLUTION; ++i) {
-            for (int j = 0; j < CharConverter.DEFAULT_PIXEL_RESOLUTION; ++j) {
-                if (arr[i][j]) {
-                    ++numTrue;
-                }
-            }
-        }
-        // Calculate brightness as the ratio of bright pixels to total pixels.
-        return (double) (numTrue) / (CharConverter.DEFAULT_PIXEL_RESOLUTION *
-                CharConverter.DEFAULT_PIXEL_RESOLUTION);
-    }
 
     /**
      * Getter method for the character associated with this brightness.
@@ -72,15 +49,6 @@ public class CharBrightness implements Comparable<CharBrightness> {
         return nonLinearBrightness;
     }
 
-    /**
-     * Getter method for the linear brightness of the character.
-     *
-     * @return the linear brightness of the character.
-     */
-    public double getLinearBrightness() {
-        return linearBrightness;
-    }
-
     /**
      * Comparison method to compare brightness of characters.
      *
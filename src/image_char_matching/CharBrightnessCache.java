@@ -0,0 +1,110 @@
+package image_char_matching;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A process-wide, thread-safe cache of the brightness of rendered characters, keyed by the character,
+ * the font and the pixel resolution. Each glyph is rendered by CharConverter only the first time its
+ * brightness is needed. Rendered glyphs are also kept in a GlyphBrightnessStore file per font and
+ * resolution, so later runs only render the characters missing from the file.
+ */
+public class CharBrightnessCache {
+    private static final char MIN_PRINTABLE_CHAR = 32;   // First printable ASCII character.
+    private static final char MAX_PRINTABLE_CHAR = 126;  // Last printable ASCII character.
+
+    // Cached non-linear brightness of each rendered glyph.
+    private static final ConcurrentHashMap<GlyphKey, Double> brightnessCache = new ConcurrentHashMap<>();
+    // File of stored brightness values of each font and resolution, by "resolution:fontName".
+    private static final ConcurrentHashMap<String, GlyphBrightnessStore> stores = new ConcurrentHashMap<>();
+
+    /**
+     * Key of a glyph in the cache.
+     *
+     * @param character  The rendered character.
+     * @param fontName   The font the character is rendered in.
+     * @param resolution The number of pixels in each row and column of the rendered character.
+     */
+    private record GlyphKey(char character, String fontName, int resolution) {
+    }
+
+    private CharBrightnessCache() {
+    }
+
+    /**
+     * Get the brightness of a character rendered in the default font and resolution of CharConverter.
+     *
+     * @param c The character.
+     * @return The non-linear brightness of the character, the ratio of its bright pixels.
+     */
+    public static double getBrightness(char c) {
+        return getBrightness(c, CharConverter.DEFAULT_FONT_NAME, CharConverter.DEFAULT_PIXEL_RESOLUTION);
+    }
+
+    /**
+     * Get the brightness of a character rendered in a given font and resolution, rendering it only if
+     * it is not cached yet.
+     *
+     * @param c          The character.
+     * @param fontName   The font to render the character in.
+     * @param resolution The number of pixels in each row and column of the rendered character.
+     * @return The non-linear brightness of the character, the ratio of its bright pixels.
+     */
+    public static double getBrightness(char c, String fontName, int resolution) {
+        return brightnessCache.computeIfAbsent(new GlyphKey(c, fontName, resolution),
+                key -> loadBrightness(key.character(), key.fontName(), key.resolution()));
+    }
+
+    /**
+     * Method to get the brightness of a character from the file of its font and resolution, rendering
+     * and storing it if the file does not hold it.
+     *
+     * @param c          character to get its brightness.
+     * @param fontName   The font to render the character in.
+     * @param resolution The number of pixels in each row and column of the rendered character.
+     * @return the non-linear brightness of character c.
+     */
+    private static double loadBrightness(char c, String fontName, int resolution) {
+        GlyphBrightnessStore store = stores.computeIfAbsent(resolution + ":" + fontName,
+                key -> new GlyphBrightnessStore(fontName, resolution));
+        Double storedBrightness = store.get(c);
+        if (storedBrightness != null) {
+            return storedBrightness;
+        }
+        double brightness = calculateBrightness(c, fontName, resolution);
+        store.put(c, brightness);
+        return brightness;
+    }
+
+    /**
+     * Eagerly render the printable ASCII characters in the default font and resolution, so that later
+     * charset changes do not need to render anything.
+     */
+    public static void warmUp() {
+        for (char c = MIN_PRINTABLE_CHAR; c <= MAX_PRINTABLE_CHAR; ++c) {
+            getBrightness(c);
+        }
+    }
+
+    /**
+     * Method to calculate the brightness of a character by rendering it.
+     *
+     * @param c          character to calculate its brightness.
+     * @param fontName   The font to render the character in.
+     * @param resolution The number of pixels in each row and column of the rendered character.
+     * @return the non-linear brightness of character c.
+     */
+    private static double calculateBrightness(char c, String fontName, int resolution) {
+        boolean[][] arr = CharConverter.convertToBoolArray(c, fontName, resolution);
+        int numTrue = 0;
+        // Count the number of true values (bright pixels) in the character matrix.
+        for (int i = 0; i < resolution; ++i) {
+            for (int j = 0; j < resolution; ++j) {
+                if (arr[i][j]) {
+                    ++numTrue;
+                }
+            }
+        }
+        // Calculate brightness as the ratio of bright pixels to total pixels.
+        return (double) (numTrue) / (resolution * resolution);
+    }
+}
@@ -0,0 +1,190 @@
+package image_char_matching;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable state of a char set, matching image brightness to chars. It is backed by primitive
+ * arrays and never changes once built, so any number of threads can read it without locks while the
+ * SubImgCharMatcher it came from is being changed.
+ * Besides the sorted arrays, it keeps a lookup table of the brightness range [0, 1] split into equal
+ * buckets, holding the matching char of every bucket in which all brightness values match the same
+ * char. Most lookups are then one array access, and the others fall back to the binary search.
+ */
+public final class CharMatcherSnapshot {
+    // Number of buckets in the lookup table.
+    private static final int LOOKUP_TABLE_SIZE = 4096;
+    // Value of a bucket that has no single matching char.
+    private static final int NO_SINGLE_CHAR = -1;
+    // Margin by which the bounds of a bucket are widened when checking them, to cover rounding.
+    private static final double BUCKET_BOUND_MARGIN = 1e-6;
+
+    private final char[] chars;                // Chars sorted by brightness, then by char.
+    private final double[] linearBrightness;   // Linear brightness of each char of chars.
+    private final boolean hasBrightnessRange;  // Whether the chars do not all have the same brightness.
+    private final long version;                // Number of changes of the char set before this snapshot.
+    // Matching char of each bucket, or NO_SINGLE_CHAR. Null if the table cannot be built.
+    private final int[] lookupTable;
+
+    /**
+     * Constructor to build a snapshot of a list of chars.
+     *
+     * @param sortedCharBrightnessList chars sorted by brightness, then by char. It is copied.
+     * @param version number of changes of the char set before this snapshot.
+     */
+    CharMatcherSnapshot(List<CharBrightness> sortedCharBrightnessList, long version) {
+        this.version = version;
+        int size = sortedCharBrightnessList.size();
+        this.chars = new char[size];
+        this.linearBrightness = new double[size];
+        if (size == 0) {
+            this.hasBrightnessRange = false;
+            this.lookupTable = null;
+            return;
+        }
+        double minBrightness = sortedCharBrightnessList.get(0).getNonLinearBrightness();
+        double maxBrightness = sortedCharBrightnessList.get(size - 1).getNonLinearBrightness();
+        // Linearize the brightness of all characters to the range [0, 1].
+        for (int i = 0; i < size; ++i) {
+            CharBrightness charBrightness = sortedCharBrightnessList.get(i);
+            this.chars[i] = charBrightness.getCharacter();
+            this.linearBrightness[i] = (charBrightness.getNonLinearBrightness() - minBrightness) /
+                    (maxBrightness - minBrightness);
+        }
+        // Linear brightness is only defined when the chars do not all have the same brightness.
+        this.hasBrightnessRange = minBrightness < maxBrightness;
+        this.lookupTable = hasBrightnessRange ? buildLookupTable() : null;
+    }
+
+    /**
+     * Method to get the character associated with a given image brightness.
+     * @param brightness value to which the char brightness should be closest to
+     * @return the char with the closest brightness value to brightness from the char set
+     */
+    public char getCharByImageBrightness(double brightness) {
+        if (lookupTable != null && brightness >= 0 && brightness <= 1) {
+            int bucket = Math.min((int) (brightness * LOOKUP_TABLE_SIZE), LOOKUP_TABLE_SIZE - 1);
+            if (lookupTable[bucket] != NO_SINGLE_CHAR) {
+                return (char) lookupTable[bucket];
+            }
+        }
+        return searchCharByImageBrightness(brightness);
+    }
+
+    /**
+     * Method to get the characters of the snapshot, sorted alphabetically.
+     *
+     * @return ArrayList of the characters from the char set in alphabetically order
+     */
+    public ArrayList<Character> getSortedCharAlphabeticallyList() {
+        ArrayList<Character> copyCharList = new ArrayList<Character>(chars.length);
+        for (char c : chars) {
+            copyCharList.add(c);
+        }
+        copyCharList.sort(null); // Sort the list alphabetically.
+        return copyCharList;
+    }
+
+    /**
+     * Method to get the number of characters in the snapshot.
+     *
+     * @return the size of the char set.
+     */
+    public int size() {
+        return chars.length;
+    }
+
+    /**
+     * Method to get the version of the char set this snapshot holds. Every change of the char set of a
+     * matcher publishes a snapshot with a higher version, so equal versions mean equal char sets.
+     *
+     * @return the number of changes of the char set before this snapshot.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Method to get the character associated with a given image brightness by a binary search.
+     * @param brightness value to which the char brightness should be closest to
+     * @return the char with the closest brightness value to brightness from the char set
+     */
+    private char searchCharByImageBrightness(double brightness) {
+        if (chars.length == 0) {
+            return 0;
+        }
+        if (!hasBrightnessRange) {
+            // All the chars have the same brightness, so the lowest char matches any brightness.
+            return chars[0];
+        }
+        int right = chars.length - 1;
+        int left = 0;
+        // Binary search to find the character with brightness closest to the given brightness.
+        while (left <= right) {
+            int mid = left + (right - left) / 2;
+            double midBrightness = linearBrightness[mid];
+
+            // Check if brightness is present at mid.
+            if (midBrightness == brightness) {
+                // The lower character is chosen if there are characters with equal brightness.
+                return chars[firstOfEqualBrightness(mid)];
+            }
+
+            // If brightness greater, ignore left half.
+            if (midBrightness < brightness) {
+                left = mid + 1;
+            }
+            // If brightness is smaller, ignore right half.
+            else {
+                right = mid - 1;
+            }
+        }
+        // Brightness outside the range of the chars matches the closest end.
+        if (right < 0) {
+            return chars[left];
+        }
+        if (left >= chars.length) {
+            return chars[firstOfEqualBrightness(right)];
+        }
+        double leftDistance = Math.abs(brightness - linearBrightness[left]);
+        double rightDistance = Math.abs(brightness - linearBrightness[right]);
+        if (leftDistance < rightDistance) {
+            return chars[left];
+        }
+        // The lower character is chosen if there are characters with equal brightness.
+        return chars[firstOfEqualBrightness(right)];
+    }
+
+    /**
+     * Method to find the first index of the chars with the same brightness as a given index.
+     *
+     * @param index index in the sorted arrays.
+     * @return the lowest index with the same brightness.
+     */
+    private int firstOfEqualBrightness(int index) {
+        while (index > 0 && linearBrightness[index - 1] == linearBrightness[index]) {
+            --index;
+        }
+        return index;
+    }
+
+    /**
+     * Method to build the lookup table. The matching char is a monotone function of the brightness, so
+     * if both bounds of a bucket match the same char, every brightness in the bucket matches it too.
+     *
+     * @return the lookup table.
+     */
+    private int[] buildLookupTable() {
+        int[] table = new int[LOOKUP_TABLE_SIZE];
+        char previousUpperChar = searchCharByImageBrightness(0);
+        for (int bucket = 0; bucket < LOOKUP_TABLE_SIZE; ++bucket) {
+            double upperBound = Math.min((bucket + 1 + BUCKET_BOUND_MARGIN) / LOOKUP_TABLE_SIZE, 1);
+            double lowerBound = Math.max((bucket - BUCKET_BOUND_MARGIN) / LOOKUP_TABLE_SIZE, 0);
+            char lowerChar = bucket == 0 ? previousUpperChar : searchCharByImageBrightness(lowerBound);
+            char upperChar = searchCharByImageBrightness(upperBound);
+            table[bucket] = lowerChar == upperChar ? lowerChar : NO_SINGLE_CHAR;
+            previousUpperChar = upperChar;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,180 @@
+package image_char_matching;
+
+import java.awt.Font;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+/**
+ * A binary file of character brightness values for one font and pixel resolution, kept between runs so
+ * that glyphs rendered once never have to be rendered again.
+ * The file starts with a header (magic number, version, resolution, font name, the family and name of
+ * the font it resolved to, Java version) followed by records of a char and its brightness. The same font
+ * name may resolve to another font on another machine or Java version, and render other glyphs, so a
+ * file whose header does not match is replaced. Known records are read through a memory mapping of the
+ * file when it is opened, and new records are appended to it. A store that fails to read or write its
+ * file keeps working, only without persistence.
+ */
+class GlyphBrightnessStore {
+    /**
+     * System property of the directory to keep the files in.
+     */
+    static final String DIRECTORY_PROPERTY = "ascii_art.glyphCacheDir";
+    private static final String DEFAULT_DIRECTORY_NAME = "ascii_art_glyphs";
+    // Environment variable of the cache directory of the user, and its default under the home directory.
+    private static final String CACHE_HOME_VARIABLE = "XDG_CACHE_HOME";
+    private static final String DEFAULT_CACHE_HOME = ".cache";
+    private static final String FILE_NAME_FORMAT = "glyph-brightness-%s-%d-%08x.bin";
+    private static final int MAGIC = 0x47425354;     // "GBST"
+    private static final int VERSION = 2;
+    private static final int RECORD_SIZE = Character.BYTES + Double.BYTES;
+
+    private final String fontName;          // Font the stored glyphs are rendered in.
+    private final String resolvedFont;      // Family and name of the font the font name resolves to.
+    private final String javaVersion;       // Java version the stored glyphs are rendered with.
+    private final int resolution;           // Pixel resolution the stored glyphs are rendered at.
+    private final HashMap<Character, Double> storedBrightness = new HashMap<>(); // Records of the file.
+    private FileChannel appendChannel;      // Channel to append new records, or null without persistence.
+
+    /**
+     * Constructor to open, or create, the file of a font and resolution.
+     *
+     * @param fontName   Font the glyphs are rendered in.
+     * @param resolution Pixel resolution the glyphs are rendered at.
+     */
+    GlyphBrightnessStore(String fontName, int resolution) {
+        this.fontName = fontName;
+        this.resolution = resolution;
+        // Resolved as CharConverter resolves it to render the glyphs.
+        Font font = new Font(fontName, Font.PLAIN, resolution);
+        this.resolvedFont = font.getFamily() + "/" + font.getFontName();
+        this.javaVersion = System.getProperty("java.version");
+        String directory = System.getProperty(DIRECTORY_PROPERTY, getDefaultDirectory());
+        // The file key holds a hash of the resolved font and Java version, so that each keeps its own file.
+        String fileName = String.format(FILE_NAME_FORMAT, fontName.replaceAll("[^A-Za-z0-9]", "_"),
+                resolution, (resolvedFont + "\n" + javaVersion).hashCode());
+        Path path = Path.of(directory, fileName);
+        try {
+            Files.createDirectories(path.getParent());
+            if (!readFile(path)) {
+                writeHeader(path);
+            }
+            appendChannel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            Logger.getGlobal().warning(String.format("Glyph brightness file \"%s\" is not available", path));
+            appendChannel = null;
+        }
+    }
+
+    /**
+     * Method to get the default directory of the files: a directory in the cache directory of the user,
+     * so that files are never shared with other users as in the temp directory.
+     *
+     * @return The path of the directory.
+     */
+    private static String getDefaultDirectory() {
+        String cacheHome = System.getenv(CACHE_HOME_VARIABLE);
+        if (cacheHome == null || cacheHome.isEmpty()) {
+            cacheHome = Path.of(System.getProperty("user.home"), DEFAULT_CACHE_HOME).toString();
+        }
+        return Path.of(cacheHome, DEFAULT_DIRECTORY_NAME).toString();
+    }
+
+    /**
+     * Get the stored brightness of a character.
+     *
+     * @param c The character.
+     * @return The stored brightness, or null if the character is not stored yet.
+     */
+    synchronized Double get(char c) {
+        return storedBrightness.get(c);
+    }
+
+    /**
+     * Store the brightness of a character, appending it to the file.
+     *
+     * @param c          The character.
+     * @param brightness The brightness of the character.
+     */
+    synchronized void put(char c, double brightness) {
+        if (storedBrightness.put(c, brightness) != null || appendChannel == null) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).putChar(c).putDouble(brightness).flip();
+        try {
+            while (record.hasRemaining()) {
+                appendChannel.write(record);
+            }
+        } catch (IOException e) {
+            Logger.getGlobal().warning("Failed to append to the glyph brightness file");
+            appendChannel = null;
+        }
+    }
+
+    /**
+     * Method to read the records of an existing file through a memory mapping.
+     *
+     * @param path The file.
+     * @return true if the file exists and belongs to this font, resolution and Java version.
+     * @throws IOException if the file cannot be read.
+     */
+    private boolean readFile(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer header = createHeader();
+            if (buffer.remaining() < header.remaining() ||
+                    !buffer.slice(0, header.remaining()).equals(header)) {
+                return false;
+            }
+            buffer.position(header.remaining());
+            // A partly written last record is ignored.
+            while (buffer.remaining() >= RECORD_SIZE) {
+                storedBrightness.put(buffer.getChar(), buffer.getDouble());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method to create, or replace, the file with an empty one holding only the header.
+     *
+     * @param path The file.
+     * @throws IOException if the file cannot be written.
+     */
+    private void writeHeader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = createHeader();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+    }
+
+    /**
+     * Method to create the header of the file of this font, resolution and Java version.
+     *
+     * @return A buffer holding the header, ready to be read.
+     */
+    private ByteBuffer createHeader() {
+        byte[] fontNameBytes = fontName.getBytes(StandardCharsets.UTF_8);
+        byte[] resolvedFontBytes = resolvedFont.getBytes(StandardCharsets.UTF_8);
+        byte[] javaVersionBytes = javaVersion.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Integer.BYTES * 6 + fontNameBytes.length + resolvedFontBytes.length +
+                        javaVersionBytes.length)
+                .putInt(MAGIC).putInt(VERSION).putInt(resolution)
+                .putInt(fontNameBytes.length).put(fontNameBytes)
+                .putInt(resolvedFontBytes.length).put(resolvedFontBytes)
+                .putInt(javaVersionBytes.length).put(javaVersionBytes).flip();
+    }
+}
@@ -0,0 +1,124 @@
+package image_char_matching;
+
+import java.util.Arrays;
+
+/**
+ * An immutable definition of the glyphs a SubImgCharMatcher matches: the font they are rendered in, the
+ * pixel resolution they are rendered at, and any set of characters of the Basic Multilingual Plane.
+ * Denser glyph sets, such as block elements or Braille patterns, give finer output at lower resolutions.
+ */
+public final class GlyphSet {
+    private static final char FIRST_PRINTABLE_ASCII = 32;
+    private static final char LAST_PRINTABLE_ASCII = 126;
+    private static final char FIRST_BLOCK_ELEMENT = '\u2580';
+    private static final char LAST_BLOCK_ELEMENT = '\u259F';
+    private static final char FIRST_BRAILLE_PATTERN = '\u2800';
+    private static final char LAST_BRAILLE_PATTERN = '\u28FF';
+
+    private final String fontName;  // Font the glyphs are rendered in.
+    private final int resolution;   // Number of pixels in each row and column of a rendered glyph.
+    private final char[] chars;     // The characters of the glyph set.
+
+    /**
+     * Constructor of a glyph set.
+     *
+     * @param fontName   Font the glyphs are rendered in.
+     * @param resolution Number of pixels in each row and column of a rendered glyph.
+     * @param chars      The characters of the glyph set. The array is copied.
+     */
+    public GlyphSet(String fontName, int resolution, char[] chars) {
+        this.fontName = fontName;
+        this.resolution = resolution;
+        this.chars = chars.clone();
+    }
+
+    /**
+     * Get a glyph set of given characters in the default font and resolution of CharConverter.
+     *
+     * @param chars The characters of the glyph set.
+     * @return the glyph set.
+     */
+    public static GlyphSet of(char[] chars) {
+        return new GlyphSet(CharConverter.DEFAULT_FONT_NAME, CharConverter.DEFAULT_PIXEL_RESOLUTION, chars);
+    }
+
+    /**
+     * Get the printable ASCII characters, 32 to 126, in the default font and resolution.
+     *
+     * @return the glyph set.
+     */
+    public static GlyphSet printableAscii() {
+        return of(range(FIRST_PRINTABLE_ASCII, LAST_PRINTABLE_ASCII));
+    }
+
+    /**
+     * Get the Unicode block elements, U+2580 to U+259F, in the default font and resolution.
+     *
+     * @return the glyph set.
+     */
+    public static GlyphSet blockElements() {
+        return of(range(FIRST_BLOCK_ELEMENT, LAST_BLOCK_ELEMENT));
+    }
+
+    /**
+     * Get the Unicode Braille patterns, U+2800 to U+28FF, in the default font and resolution.
+     *
+     * @return the glyph set.
+     */
+    public static GlyphSet braillePatterns() {
+        return of(range(FIRST_BRAILLE_PATTERN, LAST_BRAILLE_PATTERN));
+    }
+
+    /**
+     * Get the same characters rendered in another font and resolution.
+     *
+     * @param fontName   Font the glyphs are rendered in.
+     * @param resolution Number of pixels in each row and column of a rendered glyph.
+     * @return the glyph set.
+     */
+    public GlyphSet withFont(String fontName, int resolution) {
+        return new GlyphSet(fontName, resolution, chars);
+    }
+
+    /**
+     * Get all the characters of a range.
+     *
+     * @param first The first character of the range.
+     * @param last  The last character of the range, inclusive.
+     * @return the characters from first to last.
+     */
+    public static char[] range(char first, char last) {
+        char[] range = new char[last - first + 1];
+        for (int i = 0; i < range.length; ++i) {
+            range[i] = (char) (first + i);
+        }
+        return range;
+    }
+
+    /**
+     * Getter method for the font the glyphs are rendered in.
+     *
+     * @return the font name.
+     */
+    public String getFontName() {
+        return fontName;
+    }
+
+    /**
+     * Getter method for the pixel resolution the glyphs are rendered at.
+     *
+     * @return the number of pixels in each row and column of a rendered glyph.
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Getter method for the characters of the glyph set.
+     *
+     * @return a copy of the characters.
+     */
+    public char[] getChars() {
+        return Arrays.copyOf(chars, chars.length);
+    }
+}
@@ -0,0 +1,173 @@
+package image_char_matching;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A matcher comparing the shape of a sub-image with the shape of each glyph, instead of only their
+ * brightness. Glyphs are rendered to square bitmaps packed into longs, one bit per pixel, and a sub-image
+ * sampled on the same grid matches the glyph with the smallest Hamming distance (XOR and population
+ * count, which the JIT compiles to single instructions). Ties go to the lower char.
+ * Glyphs are indexed by their number of bright pixels: the difference of two counts is a lower bound of
+ * the distance, so glyphs are visited from the closest count outwards and the search stops as soon as
+ * no remaining glyph can be closer than the best one found.
+ * The matcher is immutable and can be shared by concurrent renders.
+ */
+public class StructuralCharMatcher {
+    private static final int BITS_IN_WORD = Long.SIZE;
+    private static final int LOG_BITS_IN_WORD = 6;
+
+    // Packed bitmap of each rendered glyph, keyed by "resolution:fontName:char".
+    private static final ConcurrentHashMap<String, long[]> bitmapCache = new ConcurrentHashMap<>();
+
+    private final int gridSize;         // Number of pixels in each row and column of a glyph.
+    private final int wordsPerBitmap;   // Number of longs in a packed bitmap.
+    private final char[] chars;         // Chars sorted by number of bright pixels, then by char.
+    private final long[] glyphBits;     // Bitmaps of chars, wordsPerBitmap longs each, in the same order.
+    // firstOfCount[n] is the index in chars of the first glyph with at least n bright pixels.
+    private final int[] firstOfCount;
+
+    /**
+     * Constructor of a matcher of the glyphs of a glyph set, rendered at its resolution.
+     *
+     * @param glyphSet The glyphs to match sub-images to.
+     */
+    public StructuralCharMatcher(GlyphSet glyphSet) {
+        this.gridSize = glyphSet.getResolution();
+        int bitsPerBitmap = gridSize * gridSize;
+        this.wordsPerBitmap = (bitsPerBitmap + BITS_IN_WORD - 1) / BITS_IN_WORD;
+        char[] glyphChars = glyphSet.getChars();
+        // Render the glyphs in parallel, skipping repeated chars.
+        long[][] bitmaps = new String(glyphChars).chars().distinct().parallel()
+                .mapToObj(c -> getBitmap((char) c, glyphSet.getFontName(), gridSize))
+                .toArray(long[][]::new);
+        char[] distinctChars = new String(glyphChars).chars().distinct()
+                .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
+                .toString().toCharArray();
+        // Sort the glyphs by their number of bright pixels, then by char.
+        Integer[] order = new Integer[distinctChars.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (first, second) -> {
+            int byCount = Integer.compare(countBits(bitmaps[first]), countBits(bitmaps[second]));
+            return byCount != 0 ? byCount : Character.compare(distinctChars[first], distinctChars[second]);
+        });
+        this.chars = new char[order.length];
+        this.glyphBits = new long[order.length * wordsPerBitmap];
+        this.firstOfCount = new int[bitsPerBitmap + 2];
+        int glyph = 0;
+        for (int count = 0; count <= bitsPerBitmap + 1; ++count) {
+            while (glyph < order.length && countBits(bitmaps[order[glyph]]) < count) {
+                ++glyph;
+            }
+            firstOfCount[count] = glyph;
+        }
+        for (int i = 0; i < order.length; ++i) {
+            chars[i] = distinctChars[order[i]];
+            System.arraycopy(bitmaps[order[i]], 0, glyphBits, i * wordsPerBitmap, wordsPerBitmap);
+        }
+    }
+
+    /**
+     * Getter method for the size of the grid sub-images should be sampled on.
+     *
+     * @return the number of cells in each row and column of the grid.
+     */
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    /**
+     * Getter method for the number of longs of a packed bitmap.
+     *
+     * @return the length of the bitmaps given to getCharByBits.
+     */
+    public int getWordsPerBitmap() {
+        return wordsPerBitmap;
+    }
+
+    /**
+     * Method to get the char whose glyph is closest in shape to a sampled sub-image.
+     *
+     * @param bits The bitmap of the bright cells of the sub-image, as filled by
+     *             ImageProcessing.calculateSubImageBits.
+     * @return the closest char, or 0 if the matcher has no chars.
+     */
+    public char getCharByBits(long[] bits) {
+        int count = countBits(bits);
+        int bestDistance = Integer.MAX_VALUE;
+        int bestGlyph = -1;
+        int maxCount = firstOfCount.length - 2;
+        // Visit the glyphs by the difference of their count from the sub-image count, which is a lower
+        // bound of their distance. Glyphs at the best distance are still visited, for lower chars.
+        for (int countDistance = 0; countDistance <= bestDistance && countDistance <= maxCount;
+             ++countDistance) {
+            int lowerCount = count - countDistance;
+            int upperCount = count + countDistance;
+            if (lowerCount >= 0) {
+                long result = searchCount(bits, lowerCount, bestDistance, bestGlyph);
+                bestDistance = (int) (result >> Integer.SIZE);
+                bestGlyph = (int) result;
+            }
+            if (countDistance > 0 && upperCount <= maxCount) {
+                long result = searchCount(bits, upperCount, bestDistance, bestGlyph);
+                bestDistance = (int) (result >> Integer.SIZE);
+                bestGlyph = (int) result;
+            }
+        }
+        return bestGlyph < 0 ? 0 : chars[bestGlyph];
+    }
+
+    /**
+     * Method to search the glyphs with a given number of bright pixels for a closer one.
+     *
+     * @return the best distance in the upper 32 bits, and the best glyph index in the lower 32 bits.
+     */
+    private long searchCount(long[] bits, int count, int bestDistance, int bestGlyph) {
+        for (int glyph = firstOfCount[count]; glyph < firstOfCount[count + 1]; ++glyph) {
+            int offset = glyph * wordsPerBitmap;
+            int distance = 0;
+            for (int word = 0; word < wordsPerBitmap && distance <= bestDistance; ++word) {
+                distance += Long.bitCount(glyphBits[offset + word] ^ bits[word]);
+            }
+            if (distance < bestDistance || (distance == bestDistance && chars[glyph] < chars[bestGlyph])) {
+                bestDistance = distance;
+                bestGlyph = glyph;
+            }
+        }
+        return ((long) bestDistance << Integer.SIZE) | (bestGlyph & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Method to get the packed bitmap of a glyph, rendering it only the first time.
+     *
+     * @return the bitmap, bit y * resolution + x of it set if the pixel (y, x) is bright.
+     */
+    private static long[] getBitmap(char c, String fontName, int resolution) {
+        return bitmapCache.computeIfAbsent(resolution + ":" + fontName + ":" + c, key -> {
+            boolean[][] matrix = CharConverter.convertToBoolArray(c, fontName, resolution);
+            long[] bitmap = new long[(resolution * resolution + BITS_IN_WORD - 1) / BITS_IN_WORD];
+            for (int y = 0; y < resolution; ++y) {
+                for (int x = 0; x < resolution; ++x) {
+                    if (matrix[y][x]) {
+                        int bit = y * resolution + x;
+                        bitmap[bit >>> LOG_BITS_IN_WORD] |= 1L << bit;
+                    }
+                }
+            }
+            return bitmap;
+        });
+    }
+
+    /**
+     * Method to count the set bits of a bitmap.
+     */
+    private static int countBits(long[] bitmap) {
+        int count = 0;
+        for (long word : bitmap) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+}
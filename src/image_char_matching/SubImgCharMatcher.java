@@ -1,112 +1,173 @@
 package image_char_matching;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 
 /**
  * A class for matching characters to image brightness.
+ * The char set may be changed while other threads render with it: every change publishes a new
+ * immutable CharMatcherSnapshot (copy-on-write), and lookups read the latest published snapshot
+ * without locking. A render that needs one stable char set throughout takes a snapshot once with
+ * getSnapshot and uses it for all its lookups.
+ * Changing many chars at once through addChars, removeChars or setCharset sorts the list and publishes
+ * a snapshot only once, instead of once per char. The glyphs of new chars are rendered in parallel.
+ * All the chars are rendered in the font and resolution of the glyph set the matcher was created with.
  */
 public class SubImgCharMatcher {
-    // List of characters sorted by brightness.
+    // List of characters sorted by brightness, only accessed while holding the lock of this matcher.
     private final ArrayList<CharBrightness> sortedCharBrightnessList;
-    private double minBrightness;   // Minimum brightness among characters.
-    private double maxBrightness;   // Maximum brightness among characters.
+    private final String fontName;  // Font the chars are rendered in.
+    private final int resolution;   // Number of pixels in each row and column of a rendered char.
+    // Latest published state of the char set.
+    private volatile CharMatcherSnapshot snapshot;
+    // Number of snapshots published, only accessed while holding the lock of this matcher.
+    private long version;
 
     /**
      * Constructor to initialize the SubImgCharMatcher with a given character set.
      * @param charset array of characters that should be used to convert image to ascii art
      */
     public SubImgCharMatcher(char[] charset) {
+        this(GlyphSet.of(charset));
+    }
+
+    /**
+     * Constructor to initialize the SubImgCharMatcher with a glyph set, in its font and resolution.
+     * @param glyphSet the glyphs that should be used to convert image to ascii art
+     */
+    public SubImgCharMatcher(GlyphSet glyphSet) {
         // Initialize character brightness list
         this.sortedCharBrightnessList = new ArrayList<CharBrightness>();
-        this.minBrightness = 1;   // Initialize minimum brightness to highest possible value.
-        this.maxBrightness = -1;  // Initialize maximum brightness to lowest possible value.
-        for (char c : charset) {
-            addChar(c);  // Add each character to the list.
-        }
+        this.fontName = glyphSet.getFontName();
+        this.resolution = glyphSet.getResolution();
+        setCharset(glyphSet.getChars());
     }
 
-
     /**
      * Method to get the character associated with a given image brightness.
      * @param brightness value to which the char brightness should be closest to
      * @return the char with the closest brightness value to brightness from the char set
      */
     public char getCharByImageBrightness(double brightness) {
-        if(this.sortedCharBrightnessList.isEmpty()){
-            return 0;
-        }
-        int right = this.sortedCharBrightnessList.size();
-        int left = 0;
-        // Binary search to find the character with brightness closest to the given brightness.
-        while (left <= right) {
-            int mid = left + (right - left) / 2;
-            double midBrightness = this.sortedCharBrightnessList.get(mid).getLinearBrightness();
-
-            // Check if brightness is present at mid.
-            if (midBrightness == brightness) {
-                // This loop ensures that the lower character is chosen if there are characters with
-                // equal brightness.
-                while (mid > 0 && this.sortedCharBrightnessList.get(mid - 1).getLinearBrightness() ==
-                        this.sortedCharBrightnessList.get(mid).getLinearBrightness()) {
-                    --mid;
-                }
-                return this.sortedCharBrightnessList.get(mid).getCharacter();
-            }
+        return snapshot.getCharByImageBrightness(brightness);
+    }
 
-            // If brightness greater, ignore left half.
-            if (midBrightness < brightness) {
-                left = mid + 1;
-            }
-                // If brightness is smaller, ignore right half.
-            else {
-                right = mid - 1;
-            }
+    /**
+     * Method to get the current state of the char set. The snapshot never changes, even if chars are
+     * added or removed afterwards.
+     *
+     * @return the latest published snapshot.
+     */
+    public CharMatcherSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Method to add a character to the list of sorted characters.
+     *
+     * @param c character to add to the char set
+     */
+    public synchronized void addChar(char c) {
+        if (insertChar(c)) {
+            publishSnapshot();
         }
-        double leftBrightness = this.sortedCharBrightnessList.get(left).getLinearBrightness();
-        double rightBrightness = this.sortedCharBrightnessList.get(right).getLinearBrightness();
-        double leftDistance = Math.abs(brightness - leftBrightness);
-        double rightDistance = Math.abs(brightness - rightBrightness);
-
-        // This loop ensures that the lower character is chosen if there are characters with equal brightness.
-        while (right > 0 && this.sortedCharBrightnessList.get(right - 1).getLinearBrightness() ==
-                this.sortedCharBrightnessList.get(right).getLinearBrightness()) {
-            --right;
+    }
+
+    /**
+     * Method to add many characters at once. The list is sorted and the snapshot is published once.
+     *
+     * @param charsToAdd characters to add to the char set, may contain existing or repeated chars.
+     */
+    public synchronized void addChars(char[] charsToAdd) {
+        if (appendNewChars(charsToAdd)) {
+            this.sortedCharBrightnessList.sort(null);
+            publishSnapshot();
         }
+    }
 
-        if (leftDistance < rightDistance) {
-            return this.sortedCharBrightnessList.get(left).getCharacter();
-        } else if (leftDistance > rightDistance) {
-            return this.sortedCharBrightnessList.get(right).getCharacter();
+    /**
+     * Method to remove many characters at once, in one pass over the list.
+     *
+     * @param charsToRemove characters to remove from the char set, may contain missing chars.
+     */
+    public synchronized void removeChars(char[] charsToRemove) {
+        BitSet removedChars = toBitSet(charsToRemove);
+        if (this.sortedCharBrightnessList.removeIf(
+                charBrightness -> removedChars.get(charBrightness.getCharacter()))) {
+            publishSnapshot();
         }
-        return this.sortedCharBrightnessList.get(right).getCharacter();
     }
 
+    /**
+     * Method to replace the whole char set.
+     *
+     * @param charset the characters of the new char set.
+     */
+    public synchronized void setCharset(char[] charset) {
+        this.sortedCharBrightnessList.clear();
+        appendNewChars(charset);
+        this.sortedCharBrightnessList.sort(null);
+        publishSnapshot();
+    }
 
     /**
-     * Method to add a character to the list of sorted characters.
+     * Method to append the characters that are not in the list yet to its end, leaving it unsorted.
      *
-     * @param c character to add to the char set
+     * @param charsToAdd characters to append.
+     * @return true if any character was appended.
      */
-    public void addChar(char c) {
-        CharBrightness charBrightness = new CharBrightness(c);
-        if (this.sortedCharBrightnessList.contains(charBrightness)) {
-            return; // If character already exists, return.
+    private boolean appendNewChars(char[] charsToAdd) {
+        BitSet existingChars = new BitSet();
+        for (CharBrightness charBrightness : this.sortedCharBrightnessList) {
+            existingChars.set(charBrightness.getCharacter());
+        }
+        StringBuilder newChars = new StringBuilder();
+        for (char c : charsToAdd) {
+            if (!existingChars.get(c)) {
+                existingChars.set(c);
+                newChars.append(c);
+            }
+        }
+        // Render the glyphs in parallel, they are then cached for the sequential constructors below.
+        newChars.chars().parallel().forEach(c -> CharBrightnessCache.getBrightness((char) c, fontName,
+                resolution));
+        for (int i = 0; i < newChars.length(); ++i) {
+            this.sortedCharBrightnessList.add(new CharBrightness(newChars.charAt(i), fontName, resolution));
         }
+        return newChars.length() > 0;
+    }
 
-        int pos = Collections.binarySearch(this.sortedCharBrightnessList, charBrightness);
-        if (pos < 0) {
-            // Add character in sorted order.
-            this.sortedCharBrightnessList.add(-pos - 1, charBrightness);
+    /**
+     * Method to create the set of some characters.
+     *
+     * @param chars the characters.
+     * @return a BitSet with the bit of each character set.
+     */
+    private static BitSet toBitSet(char[] chars) {
+        BitSet bitSet = new BitSet();
+        for (char c : chars) {
+            bitSet.set(c);
         }
+        return bitSet;
+    }
 
-        // Update min and max brightness, and linearize brightness list if necessary.
-        if (charBrightness.getNonLinearBrightness() > this.maxBrightness ||
-                charBrightness.getNonLinearBrightness() < this.minBrightness) {
-            linearizeBrightnessList();
-        } else {
-            charBrightness.updateLinearBrightness(minBrightness, maxBrightness);
+    /**
+     * Method to insert a character in the list of sorted characters, without publishing it.
+     *
+     * @param c character to add to the char set
+     * @return true if the character was added, false if it already exists.
+     */
+    private boolean insertChar(char c) {
+        CharBrightness charBrightness = new CharBrightness(c, fontName, resolution);
+        // The list is ordered by brightness and then by char, so a binary search finds the char.
+        int pos = Collections.binarySearch(this.sortedCharBrightnessList, charBrightness);
+        if (pos >= 0) {
+            return false; // If character already exists, return.
         }
+        // Add character in sorted order.
+        this.sortedCharBrightnessList.add(-pos - 1, charBrightness);
+        return true;
     }
 
     /**
@@ -114,32 +175,33 @@ public class SubImgCharMatcher {
      *
      * @param c character to remove from char set
      */
-    public void removeChar(char c) {
-        CharBrightness charBrightness = new CharBrightness(c);
-        this.sortedCharBrightnessList.remove(charBrightness); // Remove character from the list.
-
-        // Update min and max brightness, and linearize brightness list if necessary.
-        if (charBrightness.getNonLinearBrightness() == this.maxBrightness ||
-                charBrightness.getNonLinearBrightness() == this.minBrightness) {
-            linearizeBrightnessList();
+    public synchronized void removeChar(char c) {
+        // The brightness of the char is cached, so creating the key does not render it again.
+        CharBrightness charBrightness = new CharBrightness(c, fontName, resolution);
+        int pos = Collections.binarySearch(this.sortedCharBrightnessList, charBrightness);
+        if (pos < 0) {
+            return; // If character does not exist, return.
         }
+        this.sortedCharBrightnessList.remove(pos); // Remove character from the list.
+        publishSnapshot();
     }
 
     /**
-     * Method to linearize the brightness list.
+     * Method to publish a snapshot of the current list, with its brightness linearized and its lookup
+     * table built.
      */
-    private void linearizeBrightnessList() {
-        if(this.sortedCharBrightnessList.isEmpty()){
-            return;
-        }
-        // Update min and max brightness.
-        this.minBrightness = this.sortedCharBrightnessList.get(0).getNonLinearBrightness();
-        this.maxBrightness = this.sortedCharBrightnessList.get(
-                this.sortedCharBrightnessList.size()-1).getNonLinearBrightness();
-        // Update linear brightness of all characters.
-        for (CharBrightness charBrightness : this.sortedCharBrightnessList) {
-            charBrightness.updateLinearBrightness(minBrightness, maxBrightness);
-        }
+    private synchronized void publishSnapshot() {
+        this.snapshot = new CharMatcherSnapshot(this.sortedCharBrightnessList, this.version++);
+    }
+
+    /**
+     * Method to get the version of the char set, which grows with every change of it. Renders of the
+     * same image and resolution with the same version produce the same ASCII art.
+     *
+     * @return the version of the latest published snapshot.
+     */
+    public long getVersion() {
+        return snapshot.getVersion();
     }
 
     /**
@@ -148,13 +210,6 @@ public class SubImgCharMatcher {
      * @return ArrayList of the characters from the char set in alphabetically order
      */
     public ArrayList<Character> getSortedCharAlphabeticallyList() {
-        ArrayList<Character> copyCharList = new ArrayList<Character>();
-        // Copy characters from sorted list to new list.
-        for (CharBrightness charBrightness : sortedCharBrightnessList) {
-            copyCharList.add(charBrightness.getCharacter());
-        }
-
-        Collections.sort(copyCharList); // Sort the list alphabetically.
-        return copyCharList;
+        return snapshot.getSortedCharAlphabeticallyList();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,238 @@
+package metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Instrumentation of the rendering pipeline: a latency histogram and allocated bytes per stage, and the
+ * number of tiles and pixels rendered. The metrics are published as MBeans under the domain
+ * "ascii_art" when first enabled, and printed by the stats command of the shell.
+ * Metrics are disabled by default, or enabled from the start with -Dascii_art.metrics=true. While
+ * disabled, instrumented code only reads one volatile flag per stage, not per pixel or tile.
+ * Usage:
+ * <pre>
+ *     RenderMetrics.Timer timer = RenderMetrics.start(RenderMetrics.Stage.INDEX);
+ *     ... the stage ...
+ *     RenderMetrics.stop(timer);
+ * </pre>
+ */
+public final class RenderMetrics implements RenderMetricsMBean {
+    private static final String ENABLED_PROPERTY = "ascii_art.metrics";
+    private static final String OBJECT_NAME = "ascii_art:type=RenderMetrics";
+    private static final String STAGE_OBJECT_NAME_FORMAT = OBJECT_NAME + ",stage=%s";
+    private static final double NANOS_IN_SECOND = 1e9;
+    private static final double BYTES_IN_MEGABYTE = 1 << 20;
+    private static final double PIXELS_IN_MEGAPIXEL = 1e6;
+    private static final String STAGE_REPORT_FORMAT = "%-10s %6d runs, mean %.3f ms, p50 <= %.3f ms, " +
+            "p99 <= %.3f ms, max %.3f ms, %.1f MB allocated%n";
+    private static final String RENDER_REPORT_FORMAT = "Rendered %d tiles, %d pixels, %.2f megapixels/s.";
+
+    /**
+     * The stages of the pipeline.
+     */
+    public enum Stage {
+        DECODE, INDEX, BRIGHTNESS, MATCH, RENDER, OUTPUT;
+
+        private String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * A run of a stage in progress, on the thread that started it.
+     */
+    public static final class Timer {
+        private final Stage stage;
+        private final long startNanos;
+        private final long startBytes;
+
+        private Timer(Stage stage) {
+            this.stage = stage;
+            this.startBytes = getCurrentThreadAllocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+    }
+
+    private static final RenderMetrics INSTANCE = new RenderMetrics();
+
+    private static volatile boolean enabled;
+    private static boolean registered; // Whether the MBeans were registered, guarded by INSTANCE.
+
+    private final EnumMap<Stage, StageMetrics> stages = new EnumMap<>(Stage.class);
+    private final LongAdder tiles = new LongAdder();
+    private final LongAdder pixels = new LongAdder();
+
+    static {
+        if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+            INSTANCE.setEnabled(true);
+        }
+    }
+
+    private RenderMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new StageMetrics());
+        }
+    }
+
+    /**
+     * Start timing a run of a stage on the current thread.
+     * @param stage the stage.
+     * @return the run to pass to stop, or null if metrics are disabled.
+     */
+    public static Timer start(Stage stage) {
+        return enabled ? new Timer(stage) : null;
+    }
+
+    /**
+     * Stop timing a run of a stage and record it.
+     * @param timer the result of start, may be null.
+     */
+    public static void stop(Timer timer) {
+        if (timer == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - timer.startNanos;
+        long bytes = Math.max(0, getCurrentThreadAllocatedBytes() - timer.startBytes);
+        INSTANCE.stages.get(timer.stage).record(nanos, bytes);
+    }
+
+    /**
+     * Record a render of some sub-images of an image.
+     * @param numTiles the number of sub-images rendered.
+     * @param numPixels the number of image pixels rendered.
+     */
+    public static void recordRender(long numTiles, long numPixels) {
+        if (enabled) {
+            INSTANCE.tiles.add(numTiles);
+            INSTANCE.pixels.add(numPixels);
+        }
+    }
+
+    /**
+     * Get the metrics, to change them or read them.
+     * @return the instance of the metrics registered in JMX.
+     */
+    public static RenderMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        if (enabled) {
+            register();
+        }
+        RenderMetrics.enabled = enabled;
+    }
+
+    @Override
+    public long getTilesRendered() {
+        return tiles.sum();
+    }
+
+    @Override
+    public long getPixelsRendered() {
+        return pixels.sum();
+    }
+
+    @Override
+    public double getPixelsPerSecond() {
+        long renderNanos = stages.get(Stage.RENDER).getTotalNanos();
+        return renderNanos == 0 ? 0 : pixels.sum() * NANOS_IN_SECOND / renderNanos;
+    }
+
+    @Override
+    public void reset() {
+        for (StageMetrics stageMetrics : stages.values()) {
+            stageMetrics.reset();
+        }
+        tiles.reset();
+        pixels.reset();
+    }
+
+    /**
+     * Get a human-readable report of the metrics, one line per stage that ran and a summary line.
+     * @return the report.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            StageMetrics stageMetrics = stages.get(stage);
+            if (stageMetrics.getCount() == 0) {
+                continue;
+            }
+            report.append(String.format(Locale.ROOT, STAGE_REPORT_FORMAT, stage.getName(),
+                    stageMetrics.getCount(), stageMetrics.getMeanMillis(), stageMetrics.getP50Millis(),
+                    stageMetrics.getP99Millis(), stageMetrics.getMaxMillis(),
+                    stageMetrics.getAllocatedBytes() / BYTES_IN_MEGABYTE));
+        }
+        report.append(String.format(Locale.ROOT, RENDER_REPORT_FORMAT, getTilesRendered(),
+                getPixelsRendered(), getPixelsPerSecond() / PIXELS_IN_MEGAPIXEL));
+        return report.toString();
+    }
+
+    /**
+     * Register the MBeans of the metrics in the platform MBean server, the first time only.
+     */
+    private void register() {
+        synchronized (this) {
+            if (registered) {
+                return;
+            }
+            registered = true;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+            for (Stage stage : Stage.values()) {
+                server.registerMBean(stages.get(stage),
+                        new ObjectName(String.format(STAGE_OBJECT_NAME_FORMAT, stage.getName())));
+            }
+        } catch (JMException e) {
+            Logger.getGlobal().warning("Failed to register the render metrics in JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Holder of the allocation counters of threads, initialized by the first timed stage, so that the
+     * count is not enabled in the JVM while metrics stay disabled.
+     */
+    private static final class AllocationCounters {
+        // Allocation counters of threads, or null if the JVM does not provide them.
+        private static final com.sun.management.ThreadMXBean THREADS = getAllocationCountingThreads();
+    }
+
+    /**
+     * Get the thread bean if it can count the bytes allocated by threads, enabling the count.
+     */
+    private static com.sun.management.ThreadMXBean getAllocationCountingThreads() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            com.sun.management.ThreadMXBean allocationCountingThreads =
+                    (com.sun.management.ThreadMXBean) threads;
+            allocationCountingThreads.setThreadAllocatedMemoryEnabled(true);
+            return allocationCountingThreads;
+        }
+        return null;
+    }
+
+    /**
+     * Get the bytes allocated by the current thread so far, or 0 if the JVM does not count them.
+     */
+    private static long getCurrentThreadAllocatedBytes() {
+        com.sun.management.ThreadMXBean threads = AllocationCounters.THREADS;
+        return threads == null ? 0 : threads.getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,36 @@
+package metrics;
+
+/**
+ * JMX view of the metrics of the whole rendering pipeline.
+ */
+public interface RenderMetricsMBean {
+    /**
+     * @return whether metrics are recorded.
+     */
+    boolean isEnabled();
+
+    /**
+     * @param enabled whether metrics should be recorded.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return the number of sub-images rendered to chars.
+     */
+    long getTilesRendered();
+
+    /**
+     * @return the number of image pixels rendered.
+     */
+    long getPixelsRendered();
+
+    /**
+     * @return the number of image pixels rendered per second of rendering.
+     */
+    double getPixelsPerSecond();
+
+    /**
+     * Forget all the recorded metrics.
+     */
+    void reset();
+}
@@ -0,0 +1,108 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one stage of the rendering pipeline: a histogram of its latency and the bytes it
+ * allocated. The histogram has one bucket per power of two of nanoseconds, so recording is a few atomic
+ * additions and the memory is fixed. It is thread-safe.
+ */
+public class StageMetrics implements StageMetricsMBean {
+    private static final int NUM_BUCKETS = Long.SIZE;
+    private static final double NANOS_IN_MILLI = 1e6;
+    private static final double MEDIAN = 0.5;
+    private static final double P99 = 0.99;
+
+    // buckets[i] counts the latencies of i significant bits, that is below 2^i nanoseconds.
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    /**
+     * Record one run of the stage.
+     * @param nanos latency of the run.
+     * @param bytes bytes allocated by the run, or 0 if unknown.
+     */
+    void record(long nanos, long bytes) {
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        allocatedBytes.add(bytes);
+    }
+
+    /**
+     * Forget all the recorded runs.
+     */
+    void reset() {
+        for (int i = 0; i < buckets.length(); ++i) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+        allocatedBytes.reset();
+    }
+
+    /**
+     * @return the total latency of all the runs, in nanoseconds.
+     */
+    long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long runs = count.sum();
+        return runs == 0 ? 0 : totalNanos.sum() / NANOS_IN_MILLI / runs;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return getPercentileNanos(MEDIAN) / NANOS_IN_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return getPercentileNanos(P99) / NANOS_IN_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / NANOS_IN_MILLI;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * Get the upper bound of the bucket holding a percentile of the latencies.
+     */
+    private double getPercentileNanos(double percentile) {
+        long total = 0;
+        for (int i = 0; i < buckets.length(); ++i) {
+            total += buckets.get(i);
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); ++i) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                // Never above the largest latency actually recorded.
+                return Math.min(Math.pow(2, i), maxNanos.get());
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,37 @@
+package metrics;
+
+/**
+ * JMX view of the metrics of one stage of the rendering pipeline.
+ * Latencies are in milliseconds. Percentiles are upper bounds, exact to within a factor of two.
+ */
+public interface StageMetricsMBean {
+    /**
+     * @return the number of times the stage ran.
+     */
+    long getCount();
+
+    /**
+     * @return the mean latency of the stage.
+     */
+    double getMeanMillis();
+
+    /**
+     * @return the median latency of the stage.
+     */
+    double getP50Millis();
+
+    /**
+     * @return the 99th percentile of the latency of the stage.
+     */
+    double getP99Millis();
+
+    /**
+     * @return the largest latency of the stage.
+     */
+    double getMaxMillis();
+
+    /**
+     * @return the bytes allocated by the thread running the stage, over all its runs.
+     */
+    long getAllocatedBytes();
+}